@@ -0,0 +1,219 @@
+package org.example;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends email in the background so callers never wait for an SMTP conversation.
+ * <p>
+ * Messages are put on a bounded in-memory queue and sent by a fixed number of
+ * workers, each of which drains the queue over one pooled connection at a
+ * time. When the queue is full, {@link OverflowPolicy#BLOCK} makes the caller
+ * wait for room and {@link OverflowPolicy#REJECT} fails the call immediately.
+ * The returned future completes with the {@link SendResult} once the server
+ * has accepted or refused the message.
+ */
+public class AsyncEmailSender implements AutoCloseable {
+
+    /** Default capacity of the send queue. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /** Default number of concurrent senders (and thus SMTP connections). */
+    public static final int DEFAULT_CONCURRENCY = SmtpTransportPool.DEFAULT_MAX_CONNECTIONS_PER_KEY;
+
+    /** How long an idle worker waits for work before checking for shutdown. */
+    private static final long POLL_MILLIS = 200;
+
+    /**
+     * What to do when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait until there is room in the queue. */
+        BLOCK,
+        /** Throw {@link RejectedExecutionException}. */
+        REJECT
+    }
+
+    private final String host;
+    private final String port;
+    private final String username;
+    private final String password;
+    private final OverflowPolicy overflowPolicy;
+    private final BlockingQueue<Task> queue;
+    private final ExecutorService ownedExecutor;
+    private final CountDownLatch workersDone;
+    private volatile boolean closed;
+
+    /**
+     * Creates a sender with the default queue size and concurrency that
+     * blocks callers when the queue is full.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     */
+    public AsyncEmailSender(String host, String port, String username, String password) {
+        this(host, port, username, password, DEFAULT_QUEUE_CAPACITY, DEFAULT_CONCURRENCY,
+                OverflowPolicy.BLOCK, null);
+    }
+
+    /**
+     * Creates a sender.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param queueCapacity Maximum number of messages waiting to be sent
+     * @param concurrency Number of workers sending in parallel
+     * @param overflowPolicy What to do when the queue is full
+     * @param executor Runs the workers, or null for a virtual-thread executor owned by this sender
+     */
+    public AsyncEmailSender(String host, String port, String username, String password,
+                            int queueCapacity, int concurrency, OverflowPolicy overflowPolicy,
+                            ExecutorService executor) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.ownedExecutor = executor == null ? VirtualThreads.newThreadPerTaskExecutor("async-send") : null;
+        this.workersDone = new CountDownLatch(concurrency);
+
+        ExecutorService workers = executor != null ? executor : ownedExecutor;
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Queues a message for its own recipients.
+     *
+     * @param message The message to send
+     * @return Completes with the result once the message has been sent or refused
+     * @throws MessagingException If the recipients cannot be read
+     * @throws RejectedExecutionException If the sender is closed, or the queue
+     *         is full and the policy is {@link OverflowPolicy#REJECT}
+     */
+    public CompletableFuture<SendResult> send(Message message) throws MessagingException {
+        return send(message, message.getAllRecipients());
+    }
+
+    /**
+     * Queues a message for the given recipients.
+     *
+     * @param message The message to send
+     * @param recipients The envelope recipients
+     * @return Completes with the result once the message has been sent or refused
+     * @throws RejectedExecutionException If the sender is closed, or the queue
+     *         is full and the policy is {@link OverflowPolicy#REJECT}
+     */
+    public CompletableFuture<SendResult> send(Message message, Address[] recipients) {
+        if (closed) {
+            throw new RejectedExecutionException("Sender is closed");
+        }
+        Task task = new Task(message, recipients);
+        if (overflowPolicy == OverflowPolicy.REJECT) {
+            if (!queue.offer(task)) {
+                throw new RejectedExecutionException("Send queue is full (" + queue.size() + " messages)");
+            }
+        } else {
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the send queue", e);
+            }
+        }
+        // close() may have stopped the workers between the check above and the
+        // enqueue; take the task back so it is not left in the queue forever
+        if (closed && queue.remove(task)) {
+            throw new RejectedExecutionException("Sender is closed");
+        }
+        return task.result;
+    }
+
+    /**
+     * @return Number of messages waiting to be sent
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting messages and waits until the queued ones have been sent.
+     * Messages still queued when the workers stop, for example because they
+     * were interrupted, fail with {@link RejectedExecutionException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            workersDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Task task;
+        while ((task = queue.poll()) != null) {
+            task.result.completeExceptionally(new RejectedExecutionException("Sender is closed"));
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Takes messages off the queue and sends them, keeping one connection
+     * borrowed for as long as the queue has work.
+     */
+    private void work() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Task task = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (task == null) {
+                    continue;
+                }
+                try (SmtpTransportPool.Lease lease = SmtpTransportPool.getDefault()
+                        .borrow(host, port, username, password)) {
+                    while (task != null) {
+                        task.result.complete(EmailSender.send(lease, task.message, task.recipients));
+                        task = queue.poll();
+                    }
+                } catch (MessagingException e) {
+                    System.out.println("Error connecting to SMTP server: " + e.getMessage());
+                    task.result.complete(SendResult.failed(task.message, task.recipients, e));
+                } catch (RuntimeException e) {
+                    task.result.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workersDone.countDown();
+        }
+    }
+
+    /**
+     * A queued message and the future for its result.
+     */
+    private static final class Task {
+        private final Message message;
+        private final Address[] recipients;
+        private final CompletableFuture<SendResult> result = new CompletableFuture<>();
+
+        private Task(Message message, Address[] recipients) {
+            this.message = message;
+            this.recipients = recipients;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.example;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded LRU cache of fetched body parts.
+ * <p>
+ * The bound is on the total number of cached bytes, not on the number of
+ * entries. Parts larger than a quarter of the bound are never cached so that a
+ * single attachment cannot flush everything else.
+ */
+class BodyPartCache {
+
+    /** Default capacity of the shared cache (32 MB). */
+    static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private static final BodyPartCache SHARED = new BodyPartCache(DEFAULT_MAX_BYTES);
+
+    private final Map<String, byte[]> parts = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxBytes;
+    private long totalBytes;
+
+    BodyPartCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The cache shared by all message handles
+     */
+    static BodyPartCache shared() {
+        return SHARED;
+    }
+
+    synchronized byte[] get(String key) {
+        return parts.get(key);
+    }
+
+    synchronized void put(String key, byte[] content) {
+        if (content.length > maxBytes / 4) {
+            return;
+        }
+        byte[] previous = parts.put(key, content);
+        if (previous != null) {
+            totalBytes -= previous.length;
+        }
+        totalBytes += content.length;
+
+        // Evict least recently used parts until the cache fits again
+        Iterator<byte[]> iterator = parts.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            totalBytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    synchronized long size() {
+        return totalBytes;
+    }
+}
@@ -0,0 +1,88 @@
+package org.example;
+
+import jakarta.mail.internet.SharedInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream over a {@link ByteBuffer}, including direct and memory-mapped
+ * buffers. It implements {@link SharedInputStream}, so MIME parsing can slice
+ * body parts out of the buffer without copying them.
+ */
+public class ByteBufferInputStream extends InputStream implements SharedInputStream {
+
+    private final ByteBuffer buffer;
+    private int mark;
+
+    /**
+     * Creates a stream over the remaining bytes of a buffer. The buffer itself
+     * is not modified; positions are relative to its current position.
+     *
+     * @param buffer The buffer to read
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        buffer.position(mark);
+    }
+
+    @Override
+    public long getPosition() {
+        return buffer.position();
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        if (start < 0) {
+            throw new IllegalArgumentException("start < 0");
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        view.limit(end == -1 ? buffer.limit() : (int) end);
+        view.position((int) start);
+        return new ByteBufferInputStream(view);
+    }
+}
@@ -0,0 +1,137 @@
+package org.example;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import javax.net.SocketFactory;
+
+/**
+ * A plain socket factory that counts the bytes read and written on every
+ * socket it creates.
+ * <p>
+ * Install it as the {@code mail.<protocol>.socketFactory} instance. With
+ * {@code mail.<protocol>.ssl.enable} set, Jakarta Mail layers TLS on top of
+ * the counted socket, so the counters see encrypted (and, with COMPRESS,
+ * compressed) wire bytes.
+ */
+public class CountingSocketFactory extends SocketFactory {
+
+    private final TrafficCounters counters;
+
+    /**
+     * Creates a factory that adds to the given counters.
+     *
+     * @param counters Counters shared by all sockets of this factory
+     */
+    public CountingSocketFactory(TrafficCounters counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * @return The counters updated by this factory's sockets
+     */
+    public TrafficCounters getCounters() {
+        return counters;
+    }
+
+    @Override
+    public Socket createSocket() {
+        counters.addConnection();
+        return new CountingSocket(counters);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    /**
+     * A socket whose streams report to the counters.
+     */
+    private static final class CountingSocket extends Socket {
+        private final TrafficCounters counters;
+        private InputStream input;
+        private OutputStream output;
+
+        private CountingSocket(TrafficCounters counters) {
+            this.counters = counters;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (input == null) {
+                input = new FilterInputStream(super.getInputStream()) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b >= 0) {
+                            counters.addBytesIn(1);
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int count = super.read(b, off, len);
+                        if (count > 0) {
+                            counters.addBytesIn(count);
+                        }
+                        return count;
+                    }
+                };
+            }
+            return input;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (output == null) {
+                output = new FilterOutputStream(super.getOutputStream()) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        counters.addBytesOut(1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        counters.addBytesOut(len);
+                    }
+                };
+            }
+            return output;
+        }
+    }
+}
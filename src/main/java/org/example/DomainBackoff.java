@@ -0,0 +1,64 @@
+package org.example;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with jitter for one recipient domain, shared by the
+ * outbound senders that retry temporary failures.
+ */
+final class DomainBackoff {
+
+    /** Backoff after the first temporary failure of a domain. */
+    static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /** Upper bound on the backoff of a domain. */
+    static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private int failures;
+    private long blockedUntil;
+
+    /**
+     * @return Time until which the domain should not be tried, or 0
+     */
+    synchronized long getBlockedUntil() {
+        return blockedUntil;
+    }
+
+    /**
+     * Records a temporary failure.
+     *
+     * @return Time until which the domain should not be tried
+     */
+    synchronized long onFailure() {
+        failures++;
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failures - 1, 20));
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        blockedUntil = Math.max(blockedUntil, System.currentTimeMillis() + delay);
+        return blockedUntil;
+    }
+
+    /**
+     * Records a success.
+     *
+     * @return Whether the domain was backing off before
+     */
+    synchronized boolean onSuccess() {
+        boolean wasFailing = failures > 0;
+        failures = 0;
+        blockedUntil = 0;
+        return wasFailing;
+    }
+
+    /**
+     * Returns the lower-cased domain of an email address.
+     *
+     * @param address The email address
+     * @return The domain, or an empty string if the address has none
+     */
+    static String domainOf(String address) {
+        int at = address.lastIndexOf('@');
+        return at < 0 ? "" : address.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+}
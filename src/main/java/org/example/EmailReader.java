@@ -1,24 +1,60 @@
 package org.example;
 
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.MessageVanishedEvent;
+import com.sun.mail.imap.ResyncData;
+import com.sun.mail.imap.SortTerm;
 import jakarta.mail.*;
+import jakarta.mail.event.MailEvent;
+import jakarta.mail.event.MessageChangedEvent;
 import jakarta.mail.internet.MimeMessage;
-import jakarta.mail.internet.MimeMultipart;
 import jakarta.mail.search.FlagTerm;
+import jakarta.mail.search.SearchTerm;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Date;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A utility class for reading emails from an IMAP server.
+ * <p>
+ * Connections are borrowed from {@link ImapConnectionPool#getDefault()} and kept
+ * open between calls; use {@link ImapConnectionPool#closeAll()} to release them.
  */
 public class EmailReader {
 
+    /** Number of messages prefetched per FETCH command. */
+    static final int FETCH_BATCH_SIZE = 500;
+
+    /** Default maximum number of messages returned by one incremental sync. */
+    public static final int DEFAULT_SYNC_BATCH_SIZE = 500;
+
+    /** Default budget of body bytes fetched per part for lazy handles (64 KB). */
+    public static final int DEFAULT_PART_BYTE_BUDGET = 64 * 1024;
+
+    /** Orders envelopes by INTERNALDATE, newest first. */
+    private static final Comparator<MessageEnvelope> NEWEST_FIRST = Comparator.comparing(
+            MessageEnvelope::getReceivedDate, Comparator.nullsLast(Comparator.reverseOrder()));
+
     /**
      * Reads the latest email from the specified IMAP folder.
      *
@@ -34,69 +70,134 @@ public class EmailReader {
                                         String username, String password,
                                         String folderName) throws MessagingException {
 
-        // Set mail server properties
-        Properties properties = new Properties();
-        properties.put("mail.imap.host", host);
-        properties.put("mail.imap.port", port);
-        properties.put("mail.imap.ssl.enable", "true");
-        properties.put("mail.imap.auth", "true");
-
-        // Create a mail session with authenticator
-        Session session = Session.getInstance(properties, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(username, password);
-            }
-        });
-
-        Store store = null;
-        Folder folder = null;
         Message latestMessage = null;
 
-        try {
-            // Connect to the store
-            store = session.getStore("imap");
-            store.connect(host, username, password);
-
-            // Open the folder
-            folder = store.getFolder(folderName);
-            folder.open(Folder.READ_ONLY);
+        // Borrow a connected store and open folder from the pool
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            Folder folder = lease.getFolder();
 
-            // Get the latest message
-            Message[] messages = folder.getMessages();
-            if (messages.length == 0) {
+            // Get the message count without listing the folder
+            int count = folder.getMessageCount();
+            if (count == 0) {
                 System.out.println("No messages found in folder: " + folderName);
                 return null;
             }
 
-            // Get the latest message (last in the array)
-            Message original = messages[messages.length - 1];
+            // Get the latest message (highest sequence number)
+            Message original = folder.getMessage(count);
 
-            // Create a copy of the message to return after closing the folder
-            latestMessage = new MimeMessage((MimeMessage) original);
+            // Create a copy of the message to return after releasing the folder
+            latestMessage = RawMimeMessage.copyOf(original);
 
         } catch (MessagingException e) {
             System.out.println("Error reading emails: " + e.getMessage());
             throw e;
-        } finally {
-            // Close the folder and store
-            try {
-                if (folder != null && folder.isOpen()) {
-                    folder.close(false);
-                }
-                if (store != null && store.isConnected()) {
-                    store.close();
-                }
-            } catch (MessagingException e) {
-                System.out.println("Error closing resources: " + e.getMessage());
-            }
         }
 
         return latestMessage;
     }
 
+    /**
+     * Reads the latest email from the specified IMAP folder, serving it from a
+     * local cache when it has been downloaded before.
+     * <p>
+     * Only the message's UID is fetched from the server on a cache hit.
+     *
+     * @param host IMAP server host (e.g., "imap.gmail.com")
+     * @param port IMAP server port (e.g., "993" for SSL)
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to read from (e.g., "INBOX")
+     * @param cache Cache of raw messages
+     * @return The latest email message, or null if the folder is empty
+     * @throws MessagingException If there's an error reading the email
+     */
+    public static Message getLatestEmail(String host, String port,
+                                        String username, String password,
+                                        String folderName, MessageCache cache) throws MessagingException {
+
+        // Borrow a connected store and open folder from the pool
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            IMAPFolder folder = (IMAPFolder) lease.getFolder();
+
+            int count = folder.getMessageCount();
+            if (count == 0) {
+                System.out.println("No messages found in folder: " + folderName);
+                return null;
+            }
+            Message latest = folder.getMessage(count);
+            return getCachedMessage(lease, folder.getUID(latest), cache);
+
+        } catch (MessagingException e) {
+            System.out.println("Error reading emails: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a message by UID, serving it from a local cache when it has been
+     * downloaded before.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to read from
+     * @param uid The message UID
+     * @param cache Cache of raw messages
+     * @return The message, or null if no message has this UID
+     * @throws MessagingException If there's an error reading the email
+     */
+    public static Message getMessageByUid(String host, String port,
+                                         String username, String password,
+                                         String folderName, long uid,
+                                         MessageCache cache) throws MessagingException {
+
+        // Borrow a connected store and open folder from the pool
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            return getCachedMessage(lease, uid, cache);
+
+        } catch (MessagingException e) {
+            System.out.println("Error reading email: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Looks a message up in the cache by (UIDVALIDITY, UID) and downloads and
+     * caches it on a miss.
+     */
+    private static Message getCachedMessage(ImapConnectionPool.Lease lease, long uid,
+                                            MessageCache cache) throws MessagingException {
+        IMAPFolder folder = (IMAPFolder) lease.getFolder();
+        String key = MessageCache.uidKey(lease.getKey().toString(), folder.getUIDValidity(), uid);
+        Message cached = cache.getMessage(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Message original = folder.getMessageByUID(uid);
+        if (original == null) {
+            return null;
+        }
+        RawMimeMessage copy = RawMimeMessage.copyOf(original);
+        try {
+            cache.put(copy.getMessageID(), key, copy.getRawBuffer());
+        } catch (IOException e) {
+            throw new MessagingException("Error caching message: " + e.getMessage(), e);
+        }
+        return copy;
+    }
+
     /**
      * Gets the content of a message as a string.
+     * <p>
+     * Walks every MIME part, preferring the HTML body of multipart/alternative
+     * messages and skipping attachments. Use {@link MimeWalker} directly for a
+     * different preference or byte budget.
      *
      * @param message The email message
      * @return The content as a string
@@ -104,42 +205,31 @@ public class EmailReader {
      * @throws IOException If there's an error reading the content
      */
     public static String getMessageContent(Message message) throws MessagingException, IOException {
-        Object content = message.getContent();
-
-        if (content instanceof String) {
-            return (String) content;
-        } else if (content instanceof MimeMultipart) {
-            return getTextFromMimeMultipart((MimeMultipart) content);
+        if (message.isMimeType("text/*") || message.isMimeType("multipart/*")
+                || message.isMimeType("message/rfc822")) {
+            return new MimeWalker().extractText(message);
         } else {
-            return "Content type not supported: " + content.getClass().getName();
+            return "Content type not supported: " + message.getContentType();
         }
     }
 
     /**
-     * Extracts text content from a MimeMultipart object.
+     * Gets the body text of a lazily loaded message within a byte budget.
+     * <p>
+     * Only the first {@code maxBytesPerPart} bytes of the preferred body part
+     * are fetched ({@code BODY.PEEK[n]<0.N>}), which keeps large HTML
+     * notifications cheap. Check {@link PartContent#isTruncated()} to see
+     * whether the body was cut.
      *
-     * @param mimeMultipart The MimeMultipart object
-     * @return The extracted text
-     * @throws MessagingException If there's an error processing the parts
-     * @throws IOException If there's an error reading the content
+     * @param handle The message handle
+     * @param maxBytesPerPart Budget of bytes fetched for the body part
+     * @return The body text and its truncation state
+     * @throws MessagingException If there's an error fetching the body
+     * @throws IOException If there's an error decoding the body
      */
-    private static String getTextFromMimeMultipart(MimeMultipart mimeMultipart) throws MessagingException, IOException {
-        StringBuilder result = new StringBuilder();
-        int count = mimeMultipart.getCount();
-
-//        for (int i = 0; i < count; i++) {
-            BodyPart bodyPart = mimeMultipart.getBodyPart(count - 1);
-            if (bodyPart.isMimeType("text/plain")) {
-                result.append(bodyPart.getContent());
-            } else if (bodyPart.isMimeType("text/html")) {
-                String html = (String) bodyPart.getContent();
-                result.append(html);
-            } else if (bodyPart.getContent() instanceof MimeMultipart) {
-                result.append(getTextFromMimeMultipart((MimeMultipart) bodyPart.getContent()));
-            }
-//        }
-
-        return result.toString();
+    public static PartContent getMessageContent(MessageHandle handle, int maxBytesPerPart)
+            throws MessagingException, IOException {
+        return handle.getBodyText(MimeWalker.TextPreference.HTML, maxBytesPerPart);
     }
 
     /**
@@ -165,6 +255,103 @@ public class EmailReader {
         System.out.println("Content: " + getMessageContent(message));
     }
 
+    /**
+     * Gets the envelopes of the latest messages in the specified folder, newest first.
+     * <p>
+     * Only the tail of the folder is touched: the message count is read and the
+     * last {@code 2 * count} sequence numbers are fetched directly, then ordered
+     * by INTERNALDATE. The cost does not depend on the folder size. Messages
+     * whose INTERNALDATE is out of arrival order by more than {@code count}
+     * positions can be missed.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to read from
+     * @param count Number of messages to return
+     * @return Up to {@code count} envelopes, newest first
+     * @throws MessagingException If there's an error reading the emails
+     */
+    public static List<MessageEnvelope> getLatestEnvelopes(String host, String port,
+                                                           String username, String password,
+                                                           String folderName, int count) throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            Folder folder = lease.getFolder();
+
+            int total = folder.getMessageCount();
+            if (total == 0 || count <= 0) {
+                return new ArrayList<>();
+            }
+
+            // Fetch a tail window with slack for messages whose date is out of order
+            int window = (int) Math.min(total, 2L * count);
+            Message[] messages = folder.getMessages(total - window + 1, total);
+            List<MessageEnvelope> envelopes = fetchEnvelopes(folder, messages);
+            envelopes.sort(NEWEST_FIRST);
+            return new ArrayList<>(envelopes.subList(0, Math.min(count, envelopes.size())));
+
+        } catch (MessagingException e) {
+            System.out.println("Error reading latest emails: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the envelopes of messages received within a time window, newest first.
+     * <p>
+     * Uses a server-side SORT (RFC 5256) by arrival date when the server supports
+     * it, and a server-side SEARCH otherwise. IMAP compares dates only, in the
+     * server's time zone, so the search is widened by a day on both sides and
+     * the exact bounds are applied to the fetched INTERNALDATE afterwards.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to read from
+     * @param since Start of the window, inclusive
+     * @param before End of the window, exclusive
+     * @return Envelopes of the messages received in the window, newest first
+     * @throws MessagingException If there's an error reading the emails
+     */
+    public static List<MessageEnvelope> getEnvelopesReceivedBetween(String host, String port,
+                                                                    String username, String password,
+                                                                    String folderName,
+                                                                    Date since, Date before) throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            IMAPFolder folder = (IMAPFolder) lease.getFolder();
+
+            // SINCE/BEFORE work on whole days in the server's time zone, which may
+            // differ from ours, so widen both bounds by a day and filter exactly below
+            Date dayBefore = new Date(since.getTime() - TimeUnit.DAYS.toMillis(1));
+            Date dayAfter = new Date(before.getTime() + TimeUnit.DAYS.toMillis(1));
+            SearchTerm term = new ImapQuery().since(dayBefore).before(dayAfter).toSearchTerm();
+            Message[] messages;
+            if (((IMAPStore) lease.getStore()).hasCapability("SORT")) {
+                messages = folder.getSortedMessages(new SortTerm[] {SortTerm.REVERSE, SortTerm.ARRIVAL}, term);
+            } else {
+                messages = folder.search(term);
+            }
+
+            List<MessageEnvelope> envelopes = new ArrayList<>();
+            for (MessageEnvelope envelope : fetchEnvelopes(folder, messages)) {
+                Date received = envelope.getReceivedDate();
+                if (received != null && !received.before(since) && received.before(before)) {
+                    envelopes.add(envelope);
+                }
+            }
+            envelopes.sort(NEWEST_FIRST);
+            return envelopes;
+
+        } catch (MessagingException e) {
+            System.out.println("Error reading emails by date: " + e.getMessage());
+            throw e;
+        }
+    }
+
     /**
      * Gets unread messages from the specified folder.
      *
@@ -175,65 +362,454 @@ public class EmailReader {
      * @param folderName Folder to read from
      * @return List of unread messages
      * @throws MessagingException If there's an error reading the emails
+     * @see #getUnreadEnvelopes
      */
     public static List<Message> getUnreadMessages(String host, String port,
                                                 String username, String password,
                                                 String folderName) throws MessagingException {
-        // Set mail server properties
-        Properties properties = new Properties();
-        properties.put("mail.imap.host", host);
-        properties.put("mail.imap.port", port);
-        properties.put("mail.imap.ssl.enable", "true");
-        properties.put("mail.imap.auth", "true");
-
-        // Create a mail session with authenticator
-        Session session = Session.getInstance(properties, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(username, password);
-            }
-        });
-
-        Store store = null;
-        Folder folder = null;
         List<Message> unreadMessages = new ArrayList<>();
 
-        try {
-            // Connect to the store
-            store = session.getStore("imap");
-            store.connect(host, username, password);
-
-            // Open the folder
-            folder = store.getFolder(folderName);
-            folder.open(Folder.READ_ONLY);
+        // Borrow a connected store and open folder from the pool
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            Folder folder = lease.getFolder();
 
             // Search for unread messages
             FlagTerm flagTerm = new FlagTerm(new Flags(Flags.Flag.SEEN), false);
             Message[] messages = folder.search(flagTerm);
 
-            // Create copies of the messages to return after closing the folder
+            // Create copies of the messages to return after releasing the folder
             for (Message message : messages) {
-                unreadMessages.add(new MimeMessage((MimeMessage) message));
+                unreadMessages.add(RawMimeMessage.copyOf(message));
             }
 
         } catch (MessagingException e) {
             System.out.println("Error reading unread emails: " + e.getMessage());
             throw e;
-        } finally {
-            // Close the folder and store
-            try {
-                if (folder != null && folder.isOpen()) {
-                    folder.close(false);
+        }
+
+        return unreadMessages;
+    }
+
+    /**
+     * Finds messages whose flags changed or that were expunged since the
+     * previous resync of the folder.
+     * <p>
+     * With QRESYNC (RFC 7162) the folder is reopened with the stored
+     * UIDVALIDITY and mod-sequence and the server reports changed and vanished
+     * messages directly. With CONDSTORE only, changed messages are fetched with
+     * CHANGEDSINCE and expunges are found by diffing UIDs against the local
+     * snapshot. Without either extension, UIDs and flags of the folder are
+     * diffed against the snapshot. The first resync, or one after a
+     * UIDVALIDITY change, records a baseline and reports no changes.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to resync
+     * @param checkpoints Store holding the per-folder checkpoints and snapshots
+     * @return Changed and vanished messages and the new mod-sequence
+     * @throws MessagingException If there's an error reading the folder or saving the checkpoint
+     */
+    public static FlagResyncResult resyncFlags(String host, String port,
+                                               String username, String password,
+                                               String folderName,
+                                               UidCheckpointStore checkpoints) throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            IMAPStore store = (IMAPStore) lease.getStore();
+            String key = lease.getKey().toString();
+            UidCheckpointStore.Checkpoint checkpoint = checkpoints.get(key);
+            boolean qresync = store.hasCapability("QRESYNC");
+            boolean condstore = qresync || store.hasCapability("CONDSTORE");
+
+            // Reopen with QRESYNC data, or just enable CONDSTORE, so the server reports mod-sequences
+            IMAPFolder folder = (IMAPFolder) lease.getFolder();
+            List<MailEvent> events = Collections.emptyList();
+            boolean hasModSeqBaseline = checkpoint != null && checkpoint.getHighestModSeq() > 0;
+            if (qresync && hasModSeqBaseline) {
+                events = lease.reopen(new ResyncData(checkpoint.getUidValidity(), checkpoint.getHighestModSeq()));
+            } else if (condstore) {
+                lease.reopen(ResyncData.CONDSTORE);
+            }
+
+            long uidValidity = folder.getUIDValidity();
+            long highestModSeq = condstore ? folder.getHighestModSeq() : -1;
+            // UIDs from before a UIDVALIDITY change mean nothing now, so the sync restarts from 0
+            boolean sameValidity = checkpoint != null && checkpoint.getUidValidity() == uidValidity;
+            long lastUid = sameValidity ? checkpoint.getLastUid() : 0;
+            boolean baseline = !sameValidity || (condstore && !hasModSeqBaseline);
+
+            List<Message> changed = new ArrayList<>();
+            long[] vanished = new long[0];
+            FlagResyncResult.Method method;
+
+            if (baseline) {
+                method = FlagResyncResult.Method.BASELINE;
+                if (!qresync) {
+                    checkpoints.saveFlagSnapshot(key, snapshotFlags(folder, !condstore));
                 }
-                if (store != null && store.isConnected()) {
-                    store.close();
+            } else if (qresync) {
+                method = FlagResyncResult.Method.QRESYNC;
+                List<Long> vanishedUids = new ArrayList<>();
+                for (MailEvent event : events) {
+                    if (event instanceof MessageVanishedEvent) {
+                        for (long uid : ((MessageVanishedEvent) event).getUIDs()) {
+                            vanishedUids.add(uid);
+                        }
+                    } else if (event instanceof MessageChangedEvent) {
+                        changed.add(((MessageChangedEvent) event).getMessage());
+                    }
                 }
-            } catch (MessagingException e) {
-                System.out.println("Error closing resources: " + e.getMessage());
+                vanished = vanishedUids.stream().mapToLong(Long::longValue).toArray();
+            } else {
+                Map<Long, String> previous = checkpoints.loadFlagSnapshot(key);
+                Map<Long, String> current = snapshotFlags(folder, !condstore);
+                if (condstore) {
+                    method = FlagResyncResult.Method.CONDSTORE;
+                    changed.addAll(Arrays.asList(folder.getMessagesByUIDChangedSince(
+                            1, UIDFolder.LASTUID, checkpoint.getHighestModSeq())));
+                } else {
+                    method = FlagResyncResult.Method.UID_DIFF;
+                    List<Long> changedUids = new ArrayList<>();
+                    for (Map.Entry<Long, String> entry : current.entrySet()) {
+                        String before = previous.get(entry.getKey());
+                        if (before != null && !before.equals(entry.getValue())) {
+                            changedUids.add(entry.getKey());
+                        }
+                    }
+                    long[] uids = changedUids.stream().mapToLong(Long::longValue).toArray();
+                    for (Message message : folder.getMessagesByUID(uids)) {
+                        if (message != null) {
+                            changed.add(message);
+                        }
+                    }
+                }
+                vanished = previous.keySet().stream()
+                        .filter(uid -> !current.containsKey(uid))
+                        .mapToLong(Long::longValue).sorted().toArray();
+                checkpoints.saveFlagSnapshot(key, current);
             }
+
+            changed.removeIf(Message::isExpunged);
+            List<MessageEnvelope> envelopes = fetchEnvelopes(folder, changed.toArray(new Message[0]));
+
+            checkpoints.put(key, new UidCheckpointStore.Checkpoint(uidValidity, lastUid, highestModSeq));
+            return new FlagResyncResult(envelopes, vanished, highestModSeq, method);
+
+        } catch (IOException e) {
+            throw new MessagingException("Error saving resync checkpoint: " + e.getMessage(), e);
+        } catch (MessagingException e) {
+            System.out.println("Error resyncing flags: " + e.getMessage());
+            throw e;
         }
+    }
 
-        return unreadMessages;
+    /**
+     * Fetches the UIDs, and optionally the flags, of every message in the folder.
+     */
+    private static Map<Long, String> snapshotFlags(IMAPFolder folder, boolean withFlags) throws MessagingException {
+        Message[] messages = folder.getMessages();
+        FetchProfile profile = new FetchProfile();
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        if (withFlags) {
+            profile.add(FetchProfile.Item.FLAGS);
+        }
+        folder.fetch(messages, profile);
+
+        Map<Long, String> snapshot = new HashMap<>(messages.length * 2);
+        for (Message message : messages) {
+            String flags = withFlags ? UidCheckpointStore.canonicalFlags(message.getFlags()) : "";
+            snapshot.put(folder.getUID(message), flags);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the envelopes of unread messages from the specified folder.
+     * <p>
+     * Unlike {@link #getUnreadMessages}, no message content is downloaded: the
+     * metadata of the whole result set is pulled with a few pipelined FETCH
+     * commands instead of one full-message round trip per message.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to read from
+     * @return Envelopes of the unread messages
+     * @throws MessagingException If there's an error reading the emails
+     */
+    public static List<MessageEnvelope> getUnreadEnvelopes(String host, String port,
+                                                           String username, String password,
+                                                           String folderName) throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            Folder folder = lease.getFolder();
+
+            // Search for unread messages and prefetch their metadata in bulk
+            FlagTerm flagTerm = new FlagTerm(new Flags(Flags.Flag.SEEN), false);
+            return fetchEnvelopes(folder, folder.search(flagTerm));
+
+        } catch (MessagingException e) {
+            System.out.println("Error reading unread emails: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Gets lazy handles to the unread messages in the specified folder.
+     * <p>
+     * Only envelopes are fetched up front; body parts are downloaded when they
+     * are read through the handle, so heap use is proportional to the content
+     * actually consumed.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to read from
+     * @return Handles to the unread messages
+     * @throws MessagingException If there's an error reading the emails
+     */
+    public static List<MessageHandle> getUnreadHandles(String host, String port,
+                                                       String username, String password,
+                                                       String folderName) throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            Folder folder = lease.getFolder();
+
+            FlagTerm flagTerm = new FlagTerm(new Flags(Flags.Flag.SEEN), false);
+            List<MessageEnvelope> envelopes = fetchEnvelopes(folder, folder.search(flagTerm));
+            return toHandles(lease, password, envelopes);
+
+        } catch (MessagingException e) {
+            System.out.println("Error reading unread emails: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps envelopes fetched through a lease into lazy handles on the same folder.
+     */
+    static List<MessageHandle> toHandles(ImapConnectionPool.Lease lease, String password,
+                                         List<MessageEnvelope> envelopes) throws MessagingException {
+        ImapConnectionPool.Key key = lease.getKey();
+        long uidValidity = ((UIDFolder) lease.getFolder()).getUIDValidity();
+        List<MessageHandle> handles = new ArrayList<>(envelopes.size());
+        for (MessageEnvelope envelope : envelopes) {
+            handles.add(new MessageHandle(key.getHost(), key.getPort(), key.getUsername(), password,
+                    key.getFolderName(), uidValidity, envelope));
+        }
+        return handles;
+    }
+
+    /**
+     * Searches the specified folder on the server and returns matching UIDs only.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to search
+     * @param query The search criteria
+     * @return UIDs of the matching messages in ascending order
+     * @throws MessagingException If there's an error running the search
+     */
+    public static long[] searchUids(String host, String port,
+                                    String username, String password,
+                                    String folderName, ImapQuery query) throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            return query.execute((IMAPFolder) lease.getFolder());
+
+        } catch (MessagingException e) {
+            System.out.println("Error searching emails: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Streams lazy handles to the messages matching a query, fetching them in
+     * windows as the stream is consumed. Memory use is bounded by the window
+     * size, however large the folder is.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to read from
+     * @param query Search criteria, or null for every message
+     * @param windowSize Number of messages fetched per window
+     * @return A sequential stream of handles in UID order; errors surface as {@link MessagingRuntimeException}
+     */
+    public static Stream<MessageHandle> streamMessages(String host, String port,
+                                                       String username, String password,
+                                                       String folderName, ImapQuery query,
+                                                       int windowSize) {
+        MessageWindowIterator iterator = new MessageWindowIterator(host, port, username, password,
+                folderName, query, windowSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Publishes lazy handles to the messages matching a query. Windows are
+     * fetched only as subscribers request more items.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to read from
+     * @param query Search criteria, or null for every message
+     * @param windowSize Number of messages fetched per window
+     * @param executor Runs the fetch and delivery work
+     * @return A publisher that starts a new traversal for each subscriber
+     */
+    public static Flow.Publisher<MessageHandle> publishMessages(String host, String port,
+                                                                String username, String password,
+                                                                String folderName, ImapQuery query,
+                                                                int windowSize, Executor executor) {
+        return new MessagePublisher(() -> new MessageWindowIterator(host, port, username, password,
+                folderName, query, windowSize), executor);
+    }
+
+    /**
+     * Prefetches envelope metadata for the given messages in batches and
+     * converts them to detached envelopes.
+     *
+     * @param folder The open folder the messages belong to
+     * @param messages The messages to fetch
+     * @return The envelopes, in the order of {@code messages}
+     * @throws MessagingException If there's an error fetching the metadata
+     */
+    static List<MessageEnvelope> fetchEnvelopes(Folder folder, Message[] messages) throws MessagingException {
+        List<MessageEnvelope> envelopes = new ArrayList<>(messages.length);
+        FetchProfile profile = MessageEnvelope.fetchProfile();
+
+        // Batch the FETCH so sparse result sets don't produce huge command lines
+        for (int start = 0; start < messages.length; start += FETCH_BATCH_SIZE) {
+            Message[] batch = Arrays.copyOfRange(messages, start,
+                    Math.min(messages.length, start + FETCH_BATCH_SIZE));
+            folder.fetch(batch, profile);
+            for (Message message : batch) {
+                envelopes.add(MessageEnvelope.of((UIDFolder) folder, message));
+            }
+        }
+        return envelopes;
+    }
+
+    /**
+     * Fetches up to {@link #DEFAULT_SYNC_BATCH_SIZE} messages that arrived since
+     * the previous sync of the folder.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to sync
+     * @param checkpoints Store holding the per-folder checkpoints
+     * @return The new messages and the checkpoint to commit once they are processed
+     * @throws MessagingException If there's an error reading the emails
+     * @see #syncNewMessages(String, String, String, String, String, UidCheckpointStore, int)
+     */
+    public static UidSyncResult syncNewMessages(String host, String port,
+                                                String username, String password,
+                                                String folderName,
+                                                UidCheckpointStore checkpoints) throws MessagingException {
+        return syncNewMessages(host, port, username, password, folderName, checkpoints, DEFAULT_SYNC_BATCH_SIZE);
+    }
+
+    /**
+     * Fetches messages that arrived since the previous sync of the folder.
+     * <p>
+     * Only {@code UID last+1:*} is requested, so the cost scales with new mail
+     * rather than mailbox size. If the folder's UIDVALIDITY differs from the
+     * checkpoint, the UIDs are no longer comparable and the folder is synced from
+     * the start. At most {@code maxMessages} are copied, oldest first; when
+     * {@link UidSyncResult#hasMore()} is true, commit and sync again for the next batch.
+     * <p>
+     * The checkpoint is not advanced here. Call
+     * {@link UidCheckpointStore#commit(UidSyncResult)} after processing the
+     * messages, so a crash in between fetches them again instead of losing them.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to sync
+     * @param checkpoints Store holding the per-folder checkpoints
+     * @param maxMessages Maximum number of messages to return
+     * @return The new messages and the checkpoint to commit once they are processed
+     * @throws MessagingException If there's an error reading the emails
+     */
+    public static UidSyncResult syncNewMessages(String host, String port,
+                                                String username, String password,
+                                                String folderName,
+                                                UidCheckpointStore checkpoints,
+                                                int maxMessages) throws MessagingException {
+        List<Message> newMessages = new ArrayList<>();
+
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            UIDFolder folder = (UIDFolder) lease.getFolder();
+            String key = lease.getKey().toString();
+
+            // Compare the folder's UIDVALIDITY with the stored checkpoint
+            long uidValidity = folder.getUIDValidity();
+            UidCheckpointStore.Checkpoint checkpoint = checkpoints.get(key);
+            boolean reset = checkpoint != null && checkpoint.getUidValidity() != uidValidity;
+            long lastUid = (checkpoint == null || reset) ? 0 : checkpoint.getLastUid();
+            if (reset) {
+                System.out.println("UIDVALIDITY changed for " + key + ", resyncing folder");
+            }
+
+            // Fetch only messages above the checkpoint; "n:*" may still return the
+            // last message when nothing is newer, so filter on the UID as well
+            long highestUid = lastUid;
+            boolean hasMore = false;
+            for (Message message : folder.getMessagesByUID(lastUid + 1, UIDFolder.LASTUID)) {
+                long uid = folder.getUID(message);
+                if (uid <= lastUid) {
+                    continue;
+                }
+                if (newMessages.size() >= maxMessages) {
+                    hasMore = true;
+                    break;
+                }
+                newMessages.add(RawMimeMessage.copyOf(message));
+                highestUid = Math.max(highestUid, uid);
+            }
+
+            return new UidSyncResult(key, newMessages, uidValidity, highestUid, reset, hasMore);
+
+        } catch (MessagingException e) {
+            System.out.println("Error syncing emails: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Starts pushing new messages from the specified folder to a callback.
+     * Uses IMAP IDLE when the server supports it and adaptive polling otherwise.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to watch
+     * @param callback Receives every new message (e.g., {@code queue::offer})
+     * @return The running listener; close it to stop listening
+     */
+    public static ImapIdleListener listenForNewMessages(String host, String port,
+                                                        String username, String password,
+                                                        String folderName,
+                                                        Consumer<Message> callback) {
+        ImapIdleListener listener = new ImapIdleListener(host, port, username, password, folderName, callback);
+        listener.start();
+        return listener;
     }
 
     /**
@@ -288,6 +864,12 @@ public class EmailReader {
             // Load environment variables from .env file
             Properties envProperties = loadEnvFile();
 
+            // Opt in to COMPRESS=DEFLATE with IMAP_COMPRESS=true
+            if (Boolean.parseBoolean(envProperties.getProperty("IMAP_COMPRESS"))) {
+                ImapConnectionPool.getDefault().setCompressionEnabled(true);
+                System.out.println("IMAP compression enabled");
+            }
+
             // Get password from .env file, or use default if not found
             if (envProperties.containsKey("APP_PWD")) {
                 password = envProperties.getProperty("APP_PWD");
@@ -333,6 +915,10 @@ public class EmailReader {
         } catch (MessagingException | IOException e) {
             System.out.println("Failed to read email: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            // Release pooled connections
+            System.out.println("IMAP traffic: " + ImapConnectionPool.getDefault().getTrafficCounters());
+            ImapConnectionPool.getDefault().closeAll();
         }
     }
 }
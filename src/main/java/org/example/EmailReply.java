@@ -1,9 +1,16 @@
 package org.example;
 
+import com.sun.mail.imap.IMAPFolder;
 import jakarta.mail.*;
 import jakarta.mail.internet.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -12,6 +19,8 @@ import java.nio.file.Paths;
 
 /**
  * A utility class for replying to emails using Jakarta Mail.
+ * <p>
+ * Replies are sent over connections borrowed from {@link SmtpTransportPool#getDefault()}.
  */
 public class EmailReply {
 
@@ -32,22 +41,71 @@ public class EmailReply {
                                      String from, Message originalMessage, 
                                      String replyBody) throws MessagingException {
 
-        // Set mail server properties
-        Properties properties = new Properties();
-        properties.put("mail.smtp.host", host);
-        properties.put("mail.smtp.port", port);
-        properties.put("mail.smtp.auth", "true");
-        properties.put("mail.smtp.starttls.enable", "true");
-
-        // Create a mail session with authenticator
-        Session session = Session.getInstance(properties, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(username, password);
-            }
-        });
+        // Borrow an authenticated connection from the pool
+        try (SmtpTransportPool.Lease lease = SmtpTransportPool.getDefault()
+                .borrow(host, port, username, password)) {
+            // Create a reply message
+            Message replyMessage = createReply(lease.getSession(), from, originalMessage, replyBody);
+
+            // Send the message
+            lease.send(replyMessage);
+        }
+
+        System.out.println("Reply sent successfully!");
+    }
+
+    /**
+     * Queues a reply to a specific email message for background sending.
+     *
+     * @param sender The asynchronous sender to queue the reply on
+     * @param from Sender's email address
+     * @param originalMessage The original message to reply to
+     * @param replyBody The content of the reply
+     * @return Completes with the result once the reply has been sent or refused
+     * @throws MessagingException If the reply cannot be built
+     */
+    public static CompletableFuture<SendResult> replyToMessageAsync(AsyncEmailSender sender, String from,
+                                                                    Message originalMessage,
+                                                                    String replyBody) throws MessagingException {
+        return sender.send(createReply(null, from, originalMessage, replyBody));
+    }
 
-        // Create a reply message
+    /**
+     * Spools a reply to a specific email message. The reply survives restarts
+     * and is retried until the server accepts it.
+     *
+     * @param spool The outbound spool to write the reply to
+     * @param from Sender's email address
+     * @param originalMessage The original message to reply to
+     * @param replyBody The content of the reply
+     * @throws MessagingException If the reply cannot be built or spooled
+     */
+    public static void replyToMessage(OutboundSpool spool, String from, Message originalMessage,
+                                      String replyBody) throws MessagingException {
+        Message replyMessage = createReply(null, from, originalMessage, replyBody);
+        replyMessage.saveChanges();
+        try {
+            spool.enqueue(replyMessage);
+        } catch (IOException e) {
+            throw new MessagingException("Error spooling reply: " + e.getMessage(), e);
+        }
+
+        System.out.println("Reply spooled for delivery");
+    }
+
+    /**
+     * Builds a reply to a message, addressed to its Reply-To (or From) address
+     * with threading headers and a quote of the original's details.
+     *
+     * @param session Session for the reply, or null
+     * @param from Sender's email address
+     * @param originalMessage The original message to reply to
+     * @param replyBody The content of the reply
+     * @return The reply, ready to send
+     * @throws MessagingException If the original message cannot be read
+     */
+    public static Message createReply(Session session, String from, Message originalMessage,
+                                      String replyBody) throws MessagingException {
         Message replyMessage = new MimeMessage(session);
 
         // Set the reply headers
@@ -61,7 +119,9 @@ public class EmailReply {
 
         // Set the subject with "Re:" prefix if not already present
         String subject = originalMessage.getSubject();
-        if (!subject.toLowerCase().startsWith("re:")) {
+        if (subject == null) {
+            subject = "Re: ";
+        } else if (!subject.toLowerCase().startsWith("re:")) {
             subject = "Re: " + subject;
         }
         System.out.println("Subject: " + subject);
@@ -108,10 +168,7 @@ public class EmailReply {
         // Set the message content
         replyMessage.setText(fullReplyBody.toString());
 
-        // Send the message
-        Transport.send(replyMessage);
-
-        System.out.println("Reply sent successfully!");
+        return replyMessage;
     }
 
     /**
@@ -146,6 +203,147 @@ public class EmailReply {
         replyToMessage(smtpHost, smtpPort, username, password, from, latestEmail, replyBody);
     }
 
+    /**
+     * Replies to the latest email in the specified folder, reading it through a
+     * local message cache so repeated runs do not download it again.
+     *
+     * @param imapHost IMAP server host (e.g., "imap.gmail.com")
+     * @param imapPort IMAP server port (e.g., "993" for SSL)
+     * @param smtpHost SMTP server host (e.g., "smtp.gmail.com")
+     * @param smtpPort SMTP server port (e.g., "587" for TLS)
+     * @param username Email account username
+     * @param password Email account password
+     * @param from Sender's email address
+     * @param folderName Folder to read from (e.g., "INBOX")
+     * @param replyBody The content of the reply
+     * @param cache Cache of raw messages
+     * @throws MessagingException If there's an error reading or replying to the email
+     */
+    public static void replyToLatestEmail(String imapHost, String imapPort,
+                                         String smtpHost, String smtpPort,
+                                         String username, String password,
+                                         String from, String folderName,
+                                         String replyBody, MessageCache cache) throws MessagingException {
+
+        // Get the latest email, from the cache if it was seen before
+        Message latestEmail = EmailReader.getLatestEmail(imapHost, imapPort, username, password, folderName, cache);
+
+        if (latestEmail == null) {
+            System.out.println("No email found to reply to.");
+            return;
+        }
+
+        // Reply to the email
+        replyToMessage(smtpHost, smtpPort, username, password, from, latestEmail, replyBody);
+    }
+
+    /**
+     * Replies to every message matching a query, over one IMAP folder and one
+     * SMTP connection. Each message is marked answered as soon as its reply
+     * has been accepted, so a query with {@link ImapQuery#unanswered()} can be
+     * rerun after an interruption without replying twice.
+     *
+     * @param imapHost IMAP server host (e.g., "imap.gmail.com")
+     * @param imapPort IMAP server port (e.g., "993" for SSL)
+     * @param smtpHost SMTP server host (e.g., "smtp.gmail.com")
+     * @param smtpPort SMTP server port (e.g., "587" for TLS)
+     * @param username Email account username
+     * @param password Email account password
+     * @param from Sender's email address
+     * @param folderName Folder to read from (e.g., "INBOX")
+     * @param query Messages to reply to
+     * @param replyBody The content of the replies
+     * @return One result per matching message, in UID order
+     * @throws MessagingException If the folder cannot be searched or no SMTP connection can be established
+     */
+    public static List<SendResult> replyToMatching(String imapHost, String imapPort,
+                                                   String smtpHost, String smtpPort,
+                                                   String username, String password,
+                                                   String from, String folderName,
+                                                   ImapQuery query, String replyBody) throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(imapHost, imapPort, username, password, folderName, Folder.READ_WRITE)) {
+            IMAPFolder folder = (IMAPFolder) lease.getFolder();
+            // Skip UIDs expunged since the search
+            Message[] messages = Arrays.stream(folder.getMessagesByUID(query.execute(folder)))
+                    .filter(Objects::nonNull)
+                    .toArray(Message[]::new);
+
+            // Fetch the headers needed for the replies in one round trip
+            FetchProfile profile = new FetchProfile();
+            profile.add(FetchProfile.Item.ENVELOPE);
+            profile.add("References");
+            folder.fetch(messages, profile);
+
+            return replyToMessages(smtpHost, smtpPort, username, password, from, Arrays.asList(messages), replyBody);
+
+        } catch (MessagingException e) {
+            System.out.println("Error replying to emails: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Replies to each of the given messages over one pooled SMTP connection,
+     * marking each message answered once its reply has been accepted. The
+     * messages' folder must be open read-write for the flags to be set.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param from Sender's email address
+     * @param messages The messages to reply to
+     * @param replyBody The content of the replies
+     * @return One result per message, in the same order
+     * @throws MessagingException If no SMTP connection can be established
+     */
+    public static List<SendResult> replyToMessages(String host, String port,
+                                                   String username, String password,
+                                                   String from, Collection<? extends Message> messages,
+                                                   String replyBody) throws MessagingException {
+        List<SendResult> results = new ArrayList<>(messages.size());
+
+        // Borrow one authenticated connection for the whole batch
+        try (SmtpTransportPool.Lease lease = SmtpTransportPool.getDefault()
+                .borrow(host, port, username, password)) {
+            for (Message originalMessage : messages) {
+                Message replyMessage;
+                try {
+                    replyMessage = createReply(lease.getSession(), from, originalMessage, replyBody);
+                } catch (MessagingException e) {
+                    System.out.println("Error creating reply: " + e.getMessage());
+                    results.add(SendResult.failed(originalMessage, null, e));
+                    continue;
+                } catch (RuntimeException e) {
+                    // A malformed message must not abort the rest of the batch
+                    System.out.println("Error creating reply: " + e.getMessage());
+                    results.add(SendResult.failed(originalMessage, null,
+                            new MessagingException("Error creating reply: " + e.getMessage(), e)));
+                    continue;
+                }
+
+                SendResult result = EmailSender.send(lease, replyMessage);
+                results.add(result);
+                if (result.isSuccess()) {
+                    markAnswered(originalMessage);
+                }
+            }
+        }
+
+        System.out.println("Replied to " + results.stream().filter(SendResult::isSuccess).count()
+                + " of " + results.size() + " emails");
+        return results;
+    }
+
+    private static void markAnswered(Message message) {
+        try {
+            message.setFlag(Flags.Flag.ANSWERED, true);
+        } catch (MessagingException | IllegalStateException e) {
+            System.out.println("Error marking email as answered: " + e.getMessage());
+        }
+    }
+
     /**
      * Loads environment variables from a .env file.
      *
@@ -210,6 +408,9 @@ public class EmailReply {
         } catch (MessagingException e) {
             System.out.println("Failed to reply to email: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            // Release pooled connections
+            SmtpTransportPool.getDefault().closeAll();
         }
     }
 }
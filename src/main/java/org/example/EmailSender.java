@@ -3,19 +3,35 @@ package org.example;
 import jakarta.mail.*;
 import jakarta.mail.internet.*;
 import java.util.Properties;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * A utility class for sending emails using Jakarta Mail.
+ * <p>
+ * Connections are borrowed from {@link SmtpTransportPool#getDefault()} and kept
+ * open between calls; use {@link SmtpTransportPool#closeAll()} to release them.
  */
 public class EmailSender {
 
+    /** Bulk sends use another connection only for at least this many messages each. */
+    private static final int MIN_BULK_BATCH_SIZE = 50;
+
+    /** Largest file accepted as an attachment (25 MB, the usual provider limit). */
+    public static final long MAX_ATTACHMENT_BYTES = 25L * 1024 * 1024;
+
     /**
      * Sends a simple text email.
      *
@@ -34,33 +50,82 @@ public class EmailSender {
                                       String from, String to, 
                                       String subject, String body) throws MessagingException {
 
-        // Set mail server properties
-        Properties properties = new Properties();
-        properties.put("mail.smtp.host", host);
-        properties.put("mail.smtp.port", port);
-        properties.put("mail.smtp.auth", "true");
-        properties.put("mail.smtp.starttls.enable", "true");
-
-        // Create a mail session with authenticator
-        Session session = Session.getInstance(properties, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(username, password);
-            }
-        });
+        // Borrow an authenticated connection from the pool
+        try (SmtpTransportPool.Lease lease = SmtpTransportPool.getDefault()
+                .borrow(host, port, username, password)) {
+            // Create a message
+            Message message = new MimeMessage(lease.getSession());
+            message.setFrom(new InternetAddress(from));
+            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+            message.setSubject(subject);
+            message.setText(body);
+            message.setSentDate(new Date());
+
+            // Send the message
+            lease.send(message);
+
+            System.out.println("Email sent successfully!");
+        }
+    }
 
+    /**
+     * Spools a simple text email for delivery. The email is on disk when this
+     * method returns and is retried until the server accepts it.
+     *
+     * @param spool The outbound spool to write the email to
+     * @param from Sender's email address
+     * @param to Recipient's email address
+     * @param subject Email subject
+     * @param body Email body content
+     * @throws MessagingException If the email cannot be built or spooled
+     */
+    public static void sendSimpleEmail(OutboundSpool spool, String from, String to,
+                                       String subject, String body) throws MessagingException {
         // Create a message
-        Message message = new MimeMessage(session);
+        Message message = new MimeMessage((Session) null);
         message.setFrom(new InternetAddress(from));
         message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
         message.setSubject(subject);
         message.setText(body);
         message.setSentDate(new Date());
+        // Fix the Message-ID before spooling so retries keep it
+        message.saveChanges();
+
+        try {
+            spool.enqueue(message);
+        } catch (IOException e) {
+            throw new MessagingException("Error spooling email: " + e.getMessage(), e);
+        }
+
+        System.out.println("Email spooled for delivery");
+    }
+
+    /**
+     * Sends an email rendered from a template.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param from Sender's email address
+     * @param to Recipient's email address
+     * @param template The compiled template
+     * @param values Placeholder values
+     * @throws MessagingException If there's an error rendering or sending the email
+     */
+    public static void sendTemplatedEmail(String host, String port,
+                                          String username, String password,
+                                          String from, String to,
+                                          MessageTemplate template, Map<String, ?> values) throws MessagingException {
 
-        // Send the message
-        Transport.send(message);
+        // Borrow an authenticated connection from the pool
+        try (SmtpTransportPool.Lease lease = SmtpTransportPool.getDefault()
+                .borrow(host, port, username, password)) {
+            // Render and send the message
+            lease.send(template.createMessage(lease.getSession(), from, to, values));
 
-        System.out.println("Email sent successfully!");
+            System.out.println("Email sent successfully!");
+        }
     }
 
     /**
@@ -83,50 +148,288 @@ public class EmailSender {
                                                String subject, String body,
                                                String[] attachmentPaths) throws MessagingException {
 
-        // Set mail server properties
-        Properties properties = new Properties();
-        properties.put("mail.smtp.host", host);
-        properties.put("mail.smtp.port", port);
-        properties.put("mail.smtp.auth", "true");
-        properties.put("mail.smtp.starttls.enable", "true");
-
-        // Create a mail session with authenticator
-        Session session = Session.getInstance(properties, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(username, password);
+        // Borrow an authenticated connection from the pool
+        try (SmtpTransportPool.Lease lease = SmtpTransportPool.getDefault()
+                .borrow(host, port, username, password)) {
+            // Create a message
+            Message message = new MimeMessage(lease.getSession());
+            message.setFrom(new InternetAddress(from));
+            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+            message.setSubject(subject);
+            message.setSentDate(new Date());
+
+            // Create the message body part
+            BodyPart messageBodyPart = new MimeBodyPart();
+            messageBodyPart.setText(body);
+
+            // Create a multipart message
+            Multipart multipart = new MimeMultipart();
+            multipart.addBodyPart(messageBodyPart);
+
+            // Add attachments
+            if (attachmentPaths != null && attachmentPaths.length > 0) {
+                for (String filePath : attachmentPaths) {
+                    addAttachment(multipart, filePath);
+                }
             }
-        });
 
-        // Create a message
-        Message message = new MimeMessage(session);
-        message.setFrom(new InternetAddress(from));
-        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
-        message.setSubject(subject);
-        message.setSentDate(new Date());
+            // Set the complete message parts
+            message.setContent(multipart);
 
-        // Create the message body part
-        BodyPart messageBodyPart = new MimeBodyPart();
-        messageBodyPart.setText(body);
+            // Send the message
+            lease.send(message);
 
-        // Create a multipart message
-        Multipart multipart = new MimeMultipart();
-        multipart.addBodyPart(messageBodyPart);
+            System.out.println("Email with attachments sent successfully!");
+        }
+    }
 
-        // Add attachments
-        if (attachmentPaths != null && attachmentPaths.length > 0) {
-            for (String filePath : attachmentPaths) {
-                addAttachment(multipart, filePath);
+    /**
+     * Sends many messages through one SMTP server.
+     * <p>
+     * The messages are split into contiguous batches, each sent over a single
+     * pooled connection with one MAIL/RCPT/DATA transaction per message and no
+     * reconnects in between. Up to {@link SmtpTransportPool#DEFAULT_MAX_CONNECTIONS_PER_KEY}
+     * batches run in parallel. A failed message does not stop the rest.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param messages Messages to send to their own recipients
+     * @return One result per message, in the same order
+     * @throws MessagingException If sending is interrupted
+     * @see OutboundScheduler for per-domain rate limits and backoff
+     */
+    public static List<SendResult> sendBulk(String host, String port,
+                                            String username, String password,
+                                            List<? extends Message> messages) throws MessagingException {
+        return sendInBatches(host, port, username, password, messages, (lease, batch) -> {
+            List<SendResult> results = new ArrayList<>(batch.size());
+            for (Message message : batch) {
+                results.add(send(lease, message));
             }
+            return results;
+        }, EmailSender::unsent);
+    }
+
+    /**
+     * Sends the same text email to many recipients, each receiving their own copy.
+     * <p>
+     * Each batch builds one message and only changes its "To" header between
+     * recipients, so the body is not rebuilt per recipient.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param from Sender's email address
+     * @param subject Email subject
+     * @param body Email body content
+     * @param recipients Recipients' email addresses
+     * @return One result per recipient, in the same order
+     * @throws MessagingException If no connection to the server can be established
+     */
+    public static List<SendResult> sendBulk(String host, String port,
+                                            String username, String password,
+                                            String from, String subject, String body,
+                                            List<String> recipients) throws MessagingException {
+        return sendInBatches(host, port, username, password, recipients, (lease, batch) -> {
+            // Build the message once per batch
+            Message message = new MimeMessage(lease.getSession());
+            message.setFrom(new InternetAddress(from));
+            message.setSubject(subject);
+            message.setText(body);
+
+            List<SendResult> results = new ArrayList<>(batch.size());
+            for (String recipient : batch) {
+                Address[] to;
+                try {
+                    to = InternetAddress.parse(recipient);
+                } catch (AddressException e) {
+                    results.add(new SendResult(null, Collections.emptyMap(), e));
+                    continue;
+                }
+                message.setRecipients(Message.RecipientType.TO, to);
+                message.setSentDate(new Date());
+                results.add(send(lease, message, to));
+            }
+            return results;
+        }, EmailSender::unsent);
+    }
+
+    /**
+     * Sends a personalised copy of a template to each recipient.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param from Sender's email address
+     * @param template The compiled template
+     * @param recipients Placeholder values by recipient email address
+     * @return One result per recipient, in iteration order
+     * @throws MessagingException If sending is interrupted
+     */
+    public static List<SendResult> sendBulk(String host, String port,
+                                            String username, String password,
+                                            String from, MessageTemplate template,
+                                            Map<String, ? extends Map<String, ?>> recipients)
+            throws MessagingException {
+        List<Map.Entry<String, ? extends Map<String, ?>>> items = new ArrayList<>(recipients.entrySet());
+        return sendInBatches(host, port, username, password, items, (lease, batch) -> {
+            List<SendResult> results = new ArrayList<>(batch.size());
+            for (Map.Entry<String, ? extends Map<String, ?>> item : batch) {
+                Message message;
+                try {
+                    message = template.createMessage(lease.getSession(), from, item.getKey(), item.getValue());
+                } catch (MessagingException e) {
+                    System.out.println("Error rendering email for " + item.getKey() + ": " + e.getMessage());
+                    results.add(new SendResult(null, Collections.emptyMap(), e));
+                    continue;
+                }
+                results.add(send(lease, message));
+            }
+            return results;
+        }, (item, error) -> unsent(item.getKey(), error));
+    }
+
+    /**
+     * Splits items into batches and sends each batch over its own pooled
+     * connection, in parallel when there is more than one batch. A batch that
+     * cannot get a connection yields failed results for its items, so the
+     * results of the other batches are still returned.
+     */
+    private static <T> List<SendResult> sendInBatches(String host, String port,
+                                                      String username, String password,
+                                                      List<T> items, BatchSender<T> sender,
+                                                      BatchFailure<T> failure)
+            throws MessagingException {
+        int batches = Math.min(SmtpTransportPool.DEFAULT_MAX_CONNECTIONS_PER_KEY,
+                (items.size() + MIN_BULK_BATCH_SIZE - 1) / MIN_BULK_BATCH_SIZE);
+        if (batches <= 1) {
+            return sendBatch(host, port, username, password, items, sender, failure);
+        }
+
+        int batchSize = (items.size() + batches - 1) / batches;
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("bulk-send");
+        try {
+            List<Future<List<SendResult>>> futures = new ArrayList<>();
+            for (int start = 0; start < items.size(); start += batchSize) {
+                List<T> batch = items.subList(start, Math.min(start + batchSize, items.size()));
+                futures.add(executor.submit(() -> sendBatch(host, port, username, password, batch, sender, failure)));
+            }
+
+            List<SendResult> results = new ArrayList<>(items.size());
+            for (Future<List<SendResult>> future : futures) {
+                results.addAll(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while sending bulk email", e);
+        } catch (ExecutionException e) {
+            throw new MessagingException("Error sending bulk email: " + e.getCause().getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends one batch over a pooled connection. If no connection can be
+     * established, or the batch fails before its first send, every item is
+     * reported as failed.
+     */
+    private static <T> List<SendResult> sendBatch(String host, String port,
+                                                  String username, String password,
+                                                  List<T> batch, BatchSender<T> sender,
+                                                  BatchFailure<T> failure) {
+        try (SmtpTransportPool.Lease lease = SmtpTransportPool.getDefault()
+                .borrow(host, port, username, password)) {
+            return sender.send(lease, batch);
+        } catch (MessagingException e) {
+            System.out.println("Error sending bulk email batch: " + e.getMessage());
+            List<SendResult> results = new ArrayList<>(batch.size());
+            for (T item : batch) {
+                results.add(failure.fail(item, e));
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Sends one message to its own recipients on a leased connection,
+     * capturing failures in the result.
+     */
+    static SendResult send(SmtpTransportPool.Lease lease, Message message) {
+        Address[] recipients;
+        try {
+            recipients = message.getAllRecipients();
+        } catch (MessagingException e) {
+            System.out.println("Error reading recipients: " + e.getMessage());
+            return SendResult.failed(message, null, e);
         }
+        return send(lease, message, recipients);
+    }
 
-        // Set the complete message parts
-        message.setContent(multipart);
+    /**
+     * Sends one message on a leased connection, capturing failures in the result.
+     */
+    static SendResult send(SmtpTransportPool.Lease lease, Message message, Address[] recipients) {
+        try {
+            lease.send(message, recipients);
+            return SendResult.sent(message, recipients);
+        } catch (MessagingException e) {
+            System.out.println("Error sending email: " + e.getMessage());
+            return SendResult.failed(message, recipients, e);
+        } catch (RuntimeException e) {
+            System.out.println("Error sending email: " + e.getMessage());
+            // The connection may be stuck mid-transaction; replace it for the next message
+            try {
+                lease.reconnect();
+            } catch (MessagingException reconnectError) {
+                System.out.println("Error reconnecting to SMTP server: " + reconnectError.getMessage());
+            }
+            return SendResult.failed(message, recipients,
+                    new MessagingException("Error sending email: " + e.getMessage(), e));
+        }
+    }
 
-        // Send the message
-        Transport.send(message);
+    /**
+     * Reports a message that was never sent.
+     */
+    private static SendResult unsent(Message message, MessagingException error) {
+        Address[] recipients;
+        try {
+            recipients = message.getAllRecipients();
+        } catch (MessagingException e) {
+            recipients = null;
+        }
+        return SendResult.failed(message, recipients, error);
+    }
 
-        System.out.println("Email with attachments sent successfully!");
+    /**
+     * Reports a recipient whose message was never sent.
+     */
+    private static SendResult unsent(String recipient, MessagingException error) {
+        try {
+            return SendResult.failed(null, InternetAddress.parse(recipient), error);
+        } catch (AddressException e) {
+            return new SendResult(null, Collections.emptyMap(), error);
+        }
+    }
+
+    /**
+     * Sends a batch of items over one connection.
+     */
+    private interface BatchSender<T> {
+        List<SendResult> send(SmtpTransportPool.Lease lease, List<T> batch) throws MessagingException;
+    }
+
+    /**
+     * Creates the result of an item whose batch could not be sent.
+     */
+    private interface BatchFailure<T> {
+        SendResult fail(T item, MessagingException error);
     }
 
     /**
@@ -138,18 +441,17 @@ public class EmailSender {
      */
     private static void addAttachment(Multipart multipart, String filePath) throws MessagingException {
         try {
-            File file = new File(filePath);
-            if (!file.exists()) {
+            Path file = Paths.get(filePath);
+            if (!Files.isRegularFile(file)) {
                 System.out.println("File not found: " + filePath);
                 return;
             }
 
-            MimeBodyPart attachmentPart = new MimeBodyPart();
-            attachmentPart.attachFile(file);
-            multipart.addBodyPart(attachmentPart);
+            // Reuse the encoded part if this file was attached before
+            multipart.addBodyPart(EncodedPartCache.getDefault().getPart(file, MAX_ATTACHMENT_BYTES));
 
         } catch (Exception e) {
-            throw new MessagingException("Error adding attachment: " + e.getMessage());
+            throw new MessagingException("Error adding attachment: " + e.getMessage(), e);
         }
     }
 
@@ -219,6 +521,9 @@ public class EmailSender {
         } catch (MessagingException e) {
             System.out.println("Failed to send email: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            // Release pooled connections
+            SmtpTransportPool.getDefault().closeAll();
         }
     }
 }
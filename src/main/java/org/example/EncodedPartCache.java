@@ -0,0 +1,233 @@
+package org.example;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of attachment body parts that are already base64-encoded.
+ * <p>
+ * The first time a file is attached, its complete body part (headers and
+ * encoded content) is written once into a direct buffer. Later attachments of
+ * the same file get a new {@link MimeBodyPart} parsed from that buffer: only
+ * the few header lines are parsed, and when the message is written the
+ * encoded content is copied out as is, without reading the file or encoding
+ * it again. Entries are keyed by path and invalidated when the file's size or
+ * modification time changes. The cache holds at most a fixed number of bytes
+ * off the heap and evicts the least recently used entries first.
+ */
+public class EncodedPartCache {
+
+    /** Default off-heap capacity (64 MB). */
+    public static final long DEFAULT_CAPACITY_BYTES = 64L * 1024 * 1024;
+
+    private static final EncodedPartCache DEFAULT = new EncodedPartCache(DEFAULT_CAPACITY_BYTES);
+
+    private final long capacityBytes;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacityBytes Maximum number of encoded bytes held
+     */
+    public EncodedPartCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Returns the shared cache used by {@link EmailSender}.
+     *
+     * @return The default cache
+     */
+    public static EncodedPartCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns an attachment body part for a file, encoding the file only if
+     * it is not cached yet or has changed. Every call returns a new part, so
+     * it can be added to a multipart of its own.
+     *
+     * @param file The file to attach
+     * @param maxFileBytes Largest accepted file size
+     * @return The attachment part
+     * @throws IOException If the file cannot be read or is larger than {@code maxFileBytes}
+     * @throws MessagingException If the part cannot be built
+     */
+    public MimeBodyPart getPart(Path file, long maxFileBytes) throws IOException, MessagingException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.modified == modified && entry.fileSize == size) {
+                hits++;
+                return entry.newPart();
+            }
+            misses++;
+        }
+
+        MimeBodyPart source = createPart(file, maxFileBytes);
+        long encodedEstimate = encodedLength(size) + 1024;
+        if (encodedEstimate > capacityBytes) {
+            // Too large to cache; stream it from the file instead
+            return source;
+        }
+
+        // Write the complete part once, encoding the content
+        DirectBufferOutputStream out = new DirectBufferOutputStream((int) encodedEstimate);
+        source.writeTo(out);
+        Entry entry = new Entry(modified, size, out.toBuffer());
+
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                sizeBytes -= previous.encoded.capacity();
+            }
+            sizeBytes += entry.encoded.capacity();
+            evict();
+        }
+        return entry.newPart();
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    /**
+     * @return Number of encoded bytes currently held
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return Number of lookups served from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of lookups that had to encode the file
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Builds an attachment part that streams a file from a memory mapping.
+     *
+     * @param file The file to attach
+     * @param maxFileBytes Largest accepted file size
+     * @return The attachment part
+     * @throws IOException If the file cannot be read or is too large
+     * @throws MessagingException If the part cannot be built
+     */
+    static MimeBodyPart createPart(Path file, long maxFileBytes) throws IOException, MessagingException {
+        FileChannelDataSource dataSource = new FileChannelDataSource(file, maxFileBytes);
+        MimeBodyPart part = new MimeBodyPart();
+        part.setDataHandler(new DataHandler(dataSource));
+        // Set the type now, as writing the part alone does not fill it in
+        part.setHeader("Content-Type", dataSource.getContentType());
+        part.setFileName(file.getFileName().toString());
+        // Declaring the encoding spares a full pass over the file to choose one
+        part.setHeader("Content-Transfer-Encoding", "base64");
+        return part;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (sizeBytes > capacityBytes && iterator.hasNext()) {
+            sizeBytes -= iterator.next().encoded.capacity();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Length of base64 content with CRLF after every 76 characters.
+     */
+    private static long encodedLength(long size) {
+        long chars = (size + 2) / 3 * 4;
+        return chars + (chars + 75) / 76 * 2;
+    }
+
+    /**
+     * One cached part.
+     */
+    private static final class Entry {
+        private final long modified;
+        private final long fileSize;
+        private final ByteBuffer encoded;
+
+        private Entry(long modified, long fileSize, ByteBuffer encoded) {
+            this.modified = modified;
+            this.fileSize = fileSize;
+            this.encoded = encoded;
+        }
+
+        private MimeBodyPart newPart() throws MessagingException {
+            // Parses the headers; the content stays a slice of the shared buffer
+            return new MimeBodyPart(new ByteBufferInputStream(encoded.duplicate()));
+        }
+    }
+
+    /**
+     * Collects written bytes in a direct buffer, growing it when needed.
+     */
+    private static final class DirectBufferOutputStream extends OutputStream {
+        private ByteBuffer buffer;
+
+        private DirectBufferOutputStream(int initialCapacity) {
+            this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+        }
+
+        @Override
+        public void write(int b) {
+            ensureRemaining(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureRemaining(len);
+            buffer.put(b, off, len);
+        }
+
+        private void ensureRemaining(int count) {
+            if (buffer.remaining() < count) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(
+                        Math.max(buffer.capacity() * 2, buffer.position() + count));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        /**
+         * @return A read-only buffer holding exactly the written bytes
+         */
+        private ByteBuffer toBuffer() {
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+}
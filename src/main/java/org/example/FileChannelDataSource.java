@@ -0,0 +1,136 @@
+package org.example;
+
+import jakarta.activation.DataSource;
+import jakarta.activation.FileTypeMap;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only {@link DataSource} over a memory-mapped file.
+ * <p>
+ * The file is mapped once and every {@link #getInputStream()} reads straight
+ * from the mapping, so attaching a large file neither copies it onto the heap
+ * nor keeps a file descriptor open. Files larger than a given limit are
+ * refused up front. A CRC-32 of the content is computed while it is streamed
+ * and is available from {@link #getChecksum()} after a complete read.
+ */
+public class FileChannelDataSource implements DataSource {
+
+    private final Path file;
+    private final String contentType;
+    private final MappedByteBuffer mapped;
+    private volatile long checksum = -1;
+
+    /**
+     * Maps a file.
+     *
+     * @param file The file to read
+     * @param maxBytes Largest accepted file size
+     * @throws IOException If the file cannot be read or is larger than {@code maxBytes}
+     */
+    public FileChannelDataSource(Path file, long maxBytes) throws IOException {
+        this.file = file;
+        this.contentType = FileTypeMap.getDefaultFileTypeMap().getContentType(file.getFileName().toString());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > maxBytes) {
+                throw new IOException("File " + file + " is " + size + " bytes, the limit is " + maxBytes);
+            }
+            // The mapping stays valid after the channel is closed
+            this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * @return The mapped file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return Size of the file in bytes
+     */
+    public long getSize() {
+        return mapped.capacity();
+    }
+
+    /**
+     * @return CRC-32 of the content as last streamed in full, or -1 if it has
+     *         not been read completely yet
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ChecksumInputStream(new ByteBufferInputStream(mapped.duplicate()));
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Attachment data source " + file + " is read-only");
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String getName() {
+        return file.getFileName().toString();
+    }
+
+    /**
+     * Updates the checksum as bytes pass through and publishes it at the end of the stream.
+     */
+    private final class ChecksumInputStream extends FilterInputStream {
+        private final CRC32 crc = new CRC32();
+
+        private ChecksumInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                checksum = crc.getValue();
+            } else {
+                crc.update(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (count < 0) {
+                checksum = crc.getValue();
+            } else {
+                crc.update(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            // Skipped bytes would make the checksum meaningless
+            return 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
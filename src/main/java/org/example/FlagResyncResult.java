@@ -0,0 +1,63 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * The outcome of a flag resynchronization of one folder.
+ */
+public class FlagResyncResult {
+
+    /**
+     * How the changes were determined.
+     */
+    public enum Method {
+        /** QRESYNC: changes and expunges reported by the server on SELECT. */
+        QRESYNC,
+        /** CONDSTORE: changes via CHANGEDSINCE, expunges by UID diffing. */
+        CONDSTORE,
+        /** No extension: flags and UIDs diffed against the local snapshot. */
+        UID_DIFF,
+        /** No usable baseline; the current state was recorded without reporting changes. */
+        BASELINE
+    }
+
+    private final List<MessageEnvelope> changed;
+    private final long[] vanished;
+    private final long highestModSeq;
+    private final Method method;
+
+    public FlagResyncResult(List<MessageEnvelope> changed, long[] vanished, long highestModSeq, Method method) {
+        this.changed = changed;
+        this.vanished = vanished;
+        this.highestModSeq = highestModSeq;
+        this.method = method;
+    }
+
+    /**
+     * @return Envelopes, with current flags, of messages whose flags changed
+     */
+    public List<MessageEnvelope> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return UIDs of messages expunged since the previous resync
+     */
+    public long[] getVanished() {
+        return vanished;
+    }
+
+    /**
+     * @return The folder's highest mod-sequence now stored, or -1 without CONDSTORE
+     */
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    /**
+     * @return How the changes were determined
+     */
+    public Method getMethod() {
+        return method;
+    }
+}
@@ -0,0 +1,379 @@
+package org.example;
+
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.ResyncData;
+import jakarta.mail.*;
+import jakarta.mail.event.MailEvent;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of long-lived IMAP connections.
+ * <p>
+ * Each entry is keyed by host, port, username and folder and keeps a connected
+ * {@link Store} together with an open {@link Folder}. Callers borrow an entry,
+ * use the folder and return it by closing the {@link Lease}. Borrowed entries are
+ * health-checked with a NOOP and reconnected transparently when the server has
+ * dropped the connection. Entries that stay unused longer than the idle timeout
+ * are closed by a background sweeper.
+ * <p>
+ * Bytes sent and received by the pool's connections are counted in
+ * {@link #getTrafficCounters()}. COMPRESS=DEFLATE (RFC 4978) can be enabled
+ * with {@link #setCompressionEnabled(boolean)}; it applies to connections
+ * opened afterwards and is used only if the server advertises it.
+ */
+public class ImapConnectionPool {
+
+    /** Default time an unused connection is kept open (5 minutes). */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /** Connections used more recently than this are not NOOP-checked on borrow. */
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ImapConnectionPool DEFAULT = new ImapConnectionPool(DEFAULT_IDLE_TIMEOUT_MILLIS);
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final long idleTimeoutMillis;
+    private final ScheduledExecutorService sweeper;
+    private final TrafficCounters trafficCounters = new TrafficCounters();
+    private volatile boolean compressionEnabled;
+
+    /**
+     * Creates a pool that evicts connections idle for longer than the given timeout.
+     *
+     * @param idleTimeoutMillis Idle time after which a connection is closed
+     */
+    public ImapConnectionPool(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "imap-pool-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000L, idleTimeoutMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the shared pool used by the static {@link EmailReader} methods.
+     *
+     * @return The default pool
+     */
+    public static ImapConnectionPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Enables or disables COMPRESS=DEFLATE for connections opened from now on.
+     * Mailboxes dominated by HTML typically transfer several times fewer bytes.
+     *
+     * @param compressionEnabled Whether to negotiate compression
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * @return Whether COMPRESS=DEFLATE is negotiated for new connections
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * @return Wire byte counters for all connections opened by this pool
+     */
+    public TrafficCounters getTrafficCounters() {
+        return trafficCounters;
+    }
+
+    /**
+     * Borrows an open folder, connecting or reconnecting as needed.
+     * <p>
+     * The folder is held exclusively until the returned lease is closed. If the
+     * pooled folder is open in the other mode, it is reopened in {@code mode},
+     * so a read-only borrow never gets a folder left read-write by an earlier
+     * one, where reading a message would set its \Seen flag.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password, used if the account is new to {@link SessionRegistry}
+     * @param folderName Folder to open
+     * @param mode {@link Folder#READ_ONLY} or {@link Folder#READ_WRITE}
+     * @return A lease on the open folder
+     * @throws MessagingException If the connection cannot be established
+     */
+    public Lease borrow(String host, String port, String username, String password,
+                        String folderName, int mode) throws MessagingException {
+        Key key = new Key(host, port, username, folderName);
+        Entry entry;
+        while (true) {
+            entry = entries.computeIfAbsent(key, Entry::new);
+            entry.lock.lock();
+            if (entries.get(key) == entry) {
+                break;
+            }
+            // The sweeper evicted the entry before we locked it; use a fresh one
+            entry.lock.unlock();
+        }
+        try {
+            entry.ensureOpen(password, mode, compressionEnabled, trafficCounters);
+            return new Lease(entry);
+        } catch (MessagingException | RuntimeException e) {
+            entry.closeQuietly();
+            entry.lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes connections that have not been used within the idle timeout.
+     * Connections currently on loan are skipped.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.lastUsed < idleTimeoutMillis || !entry.lock.tryLock()) {
+                continue;
+            }
+            try {
+                entry.closeQuietly();
+                iterator.remove();
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes every pooled connection that is not currently on loan.
+     */
+    public void closeAll() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.lock.tryLock()) {
+                try {
+                    entry.closeQuietly();
+                    iterator.remove();
+                } finally {
+                    entry.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Identifies a pooled connection.
+     */
+    public static final class Key {
+        private final String host;
+        private final String port;
+        private final String username;
+        private final String folderName;
+
+        public Key(String host, String port, String username, String folderName) {
+            this.host = host;
+            this.port = port;
+            this.username = username;
+            this.folderName = folderName;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getPort() {
+            return port;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getFolderName() {
+            return folderName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return host.equals(other.host) && port.equals(other.port)
+                    && username.equals(other.username) && folderName.equals(other.folderName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, username, folderName);
+        }
+
+        @Override
+        public String toString() {
+            return username + "@" + host + ":" + port + "/" + folderName;
+        }
+    }
+
+    /**
+     * Exclusive access to a pooled folder. Closing the lease returns the
+     * connection to the pool; it does not close the folder.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * @return The open folder
+         */
+        public Folder getFolder() {
+            return entry.folder;
+        }
+
+        /**
+         * @return The connected store
+         */
+        public Store getStore() {
+            return entry.store;
+        }
+
+        /**
+         * @return The key of the pooled connection
+         */
+        public Key getKey() {
+            return entry.key;
+        }
+
+        /**
+         * Closes and reopens the folder in its current mode with CONDSTORE or
+         * QRESYNC resynchronization data.
+         *
+         * @param resyncData The resync data (see {@link ResyncData#CONDSTORE})
+         * @return Change and vanished events reported by the server while opening
+         * @throws MessagingException If the folder cannot be reopened
+         */
+        public List<MailEvent> reopen(ResyncData resyncData) throws MessagingException {
+            IMAPFolder folder = (IMAPFolder) entry.folder;
+            int mode = folder.getMode();
+            folder.close(false);
+            List<MailEvent> events = folder.open(mode, resyncData);
+            return events != null ? events : Collections.emptyList();
+        }
+
+        /**
+         * Closes the underlying connection instead of returning it to the pool.
+         * Use this after an error that may have left the connection unusable.
+         */
+        public void invalidate() {
+            entry.closeQuietly();
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                entry.lastUsed = System.currentTimeMillis();
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A pooled store and folder.
+     */
+    private static final class Entry {
+        private final Key key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private Store store;
+        private Folder folder;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Entry(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * Makes sure the store is connected and the folder open in exactly the given mode.
+         */
+        private void ensureOpen(String password, int mode, boolean compress,
+                                TrafficCounters counters) throws MessagingException {
+            if (folder != null && folder.isOpen()
+                    && System.currentTimeMillis() - lastUsed > HEALTH_CHECK_INTERVAL_MILLIS
+                    && !isAlive()) {
+                closeQuietly();
+            }
+
+            if (store == null || !store.isConnected()) {
+                closeQuietly();
+                // Registers the password if the account is new; connect with the current one
+                SessionRegistry registry = SessionRegistry.getDefault();
+                Session session = registry.getImapSession(key.host, key.port, key.username, password,
+                        compress, counters);
+                store = session.getStore("imap");
+                store.connect(key.host, key.username, registry.getPassword("imap", key.host, key.port, key.username));
+            }
+
+            if (folder == null) {
+                folder = store.getFolder(key.folderName);
+            }
+            if (folder.isOpen() && folder.getMode() != mode) {
+                folder.close(false);
+            }
+            if (!folder.isOpen()) {
+                folder.open(mode);
+            }
+        }
+
+        /**
+         * Sends a NOOP to verify that the server still answers on this connection.
+         */
+        private boolean isAlive() {
+            try {
+                if (folder instanceof IMAPFolder) {
+                    ((IMAPFolder) folder).doCommand(protocol -> {
+                        protocol.noop();
+                        return null;
+                    });
+                } else {
+                    folder.getMessageCount();
+                }
+                return true;
+            } catch (MessagingException | IllegalStateException e) {
+                System.out.println("Pooled IMAP connection " + key + " is stale: " + e.getMessage());
+                return false;
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                if (folder != null && folder.isOpen()) {
+                    folder.close(false);
+                }
+            } catch (MessagingException | IllegalStateException e) {
+                System.out.println("Error closing folder: " + e.getMessage());
+            }
+            EmailReader.closeConnection(store);
+            folder = null;
+            store = null;
+        }
+    }
+}
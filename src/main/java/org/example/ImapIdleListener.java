@@ -0,0 +1,262 @@
+package org.example;
+
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+import jakarta.mail.*;
+import jakarta.mail.event.MessageCountAdapter;
+import jakarta.mail.event.MessageCountEvent;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Pushes new messages from an IMAP folder to a callback as they arrive.
+ * <p>
+ * When the server supports IDLE (RFC 2177) the listener keeps the folder in idle
+ * mode and re-arms it before the server's inactivity timeout. Otherwise it falls
+ * back to adaptive polling: the poll interval starts at the minimum, doubles
+ * while nothing arrives and drops back to the minimum as soon as mail shows up.
+ * <p>
+ * The listener runs on its own connection rather than a pooled one, because an
+ * idling folder cannot be used for anything else. Messages handed to the callback
+ * are live messages of the listener's folder; reading them from the callback
+ * briefly interrupts IDLE, which is re-armed afterwards. To consume messages on
+ * another thread, pass a queue's {@code offer} method as the callback.
+ */
+public class ImapIdleListener implements AutoCloseable {
+
+    /** Default interval at which IDLE is re-issued (RFC 2177 allows servers to drop after 29 minutes). */
+    public static final long DEFAULT_REARM_MILLIS = TimeUnit.MINUTES.toMillis(9);
+
+    /** Default shortest poll interval when the server lacks IDLE. */
+    public static final long DEFAULT_MIN_POLL_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    /** Default longest poll interval when the server lacks IDLE. */
+    public static final long DEFAULT_MAX_POLL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    /** Delay before reconnecting after a connection failure. */
+    private static final long RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final String host;
+    private final String port;
+    private final String username;
+    private final String password;
+    private final String folderName;
+    private final Consumer<Message> callback;
+    private final long rearmMillis;
+    private final long minPollMillis;
+    private final long maxPollMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean running;
+    private volatile IMAPStore store;
+    private volatile IMAPFolder folder;
+    private Thread worker;
+
+    /**
+     * Creates a listener with the default re-arm and poll intervals.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to watch (e.g., "INBOX")
+     * @param callback Receives every new message
+     */
+    public ImapIdleListener(String host, String port, String username, String password,
+                            String folderName, Consumer<Message> callback) {
+        this(host, port, username, password, folderName, callback,
+                DEFAULT_REARM_MILLIS, DEFAULT_MIN_POLL_MILLIS, DEFAULT_MAX_POLL_MILLIS);
+    }
+
+    /**
+     * Creates a listener with custom re-arm and poll intervals.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to watch (e.g., "INBOX")
+     * @param callback Receives every new message
+     * @param rearmMillis Interval at which IDLE is re-issued
+     * @param minPollMillis Shortest poll interval when IDLE is unavailable
+     * @param maxPollMillis Longest poll interval when IDLE is unavailable
+     */
+    public ImapIdleListener(String host, String port, String username, String password,
+                            String folderName, Consumer<Message> callback,
+                            long rearmMillis, long minPollMillis, long maxPollMillis) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.folderName = folderName;
+        this.callback = callback;
+        this.rearmMillis = rearmMillis;
+        this.minPollMillis = minPollMillis;
+        this.maxPollMillis = maxPollMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "imap-idle-rearm");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts watching the folder on a background thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "imap-idle-" + username + "/" + folderName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops watching and closes the connection.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        scheduler.shutdownNow();
+        // Closing the store aborts a pending IDLE
+        EmailReader.closeConnection(store);
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Connects, watches the folder and reconnects after failures until closed.
+     */
+    private void run() {
+        while (running) {
+            try {
+                connect();
+                if (store.hasCapability("IDLE")) {
+                    idleLoop();
+                } else {
+                    pollLoop();
+                }
+            } catch (MessagingException | IllegalStateException e) {
+                if (running) {
+                    System.out.println("IMAP listener for " + folderName + " lost connection: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                disconnect();
+            }
+
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a dedicated connection and registers the message count listener.
+     */
+    private void connect() throws MessagingException {
+        SessionRegistry registry = SessionRegistry.getDefault();
+        Session session = registry.getImapSession(host, port, username, password);
+        IMAPStore newStore = (IMAPStore) session.getStore("imap");
+        newStore.connect(host, username, registry.getPassword("imap", host, port, username));
+        store = newStore;
+
+        IMAPFolder newFolder = (IMAPFolder) newStore.getFolder(folderName);
+        newFolder.open(Folder.READ_ONLY);
+        newFolder.addMessageCountListener(new MessageCountAdapter() {
+            @Override
+            public void messagesAdded(MessageCountEvent event) {
+                for (Message message : event.getMessages()) {
+                    try {
+                        callback.accept(message);
+                    } catch (RuntimeException e) {
+                        System.out.println("Error in new message callback: " + e.getMessage());
+                    }
+                }
+            }
+        });
+        folder = newFolder;
+    }
+
+    /**
+     * Idles until closed, re-arming periodically so the server does not time out.
+     */
+    private void idleLoop() throws MessagingException {
+        ScheduledFuture<?> rearm = scheduler.scheduleWithFixedDelay(this::noop,
+                rearmMillis, rearmMillis, TimeUnit.MILLISECONDS);
+        try {
+            while (running && folder.isOpen()) {
+                // Returns whenever another thread issues a command on the folder
+                folder.idle();
+            }
+        } finally {
+            rearm.cancel(false);
+        }
+    }
+
+    /**
+     * Polls with NOOP at an interval that backs off while the folder is quiet.
+     */
+    private void pollLoop() throws MessagingException, InterruptedException {
+        long interval = minPollMillis;
+        while (running && folder.isOpen()) {
+            Thread.sleep(interval);
+            int before = folder.getMessageCount();
+            // NOOP makes the server report new messages, which fires messagesAdded
+            folder.doCommand(protocol -> {
+                protocol.noop();
+                return null;
+            });
+            if (folder.getMessageCount() > before) {
+                interval = minPollMillis;
+            } else {
+                interval = Math.min(interval * 2, maxPollMillis);
+            }
+        }
+    }
+
+    /**
+     * Issues a NOOP, which terminates the current IDLE so the loop re-arms it.
+     */
+    private void noop() {
+        IMAPFolder current = folder;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.doCommand(protocol -> {
+                protocol.noop();
+                return null;
+            });
+        } catch (MessagingException | IllegalStateException e) {
+            System.out.println("Error re-arming IDLE: " + e.getMessage());
+        }
+    }
+
+    private void disconnect() {
+        IMAPFolder current = folder;
+        folder = null;
+        try {
+            if (current != null && current.isOpen()) {
+                current.close(false);
+            }
+        } catch (MessagingException | IllegalStateException e) {
+            System.out.println("Error closing folder: " + e.getMessage());
+        }
+        EmailReader.closeConnection(store);
+        store = null;
+    }
+}
@@ -0,0 +1,235 @@
+package org.example;
+
+import com.sun.mail.iap.Argument;
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.IMAPResponse;
+import com.sun.mail.imap.protocol.SearchSequence;
+import jakarta.mail.Flags;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+import jakarta.mail.search.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A composable IMAP search that is evaluated entirely on the server.
+ * <p>
+ * Criteria are combined with AND and translated to a single {@code UID SEARCH}
+ * command, which returns only the UIDs of matching messages. Nothing is
+ * downloaded for messages that do not match.
+ * <pre>
+ * ImapQuery query = new ImapQuery()
+ *         .fromDomain("mchat.booking.com")
+ *         .since(yesterday)
+ *         .unseen();
+ * </pre>
+ */
+public class ImapQuery {
+
+    private final List<SearchTerm> terms = new ArrayList<>();
+    private long uidStart = -1;
+    private long uidEnd = -1;
+
+    /**
+     * Matches messages whose From address is at the given domain
+     * (e.g., "expediapartnercentral.com").
+     */
+    public ImapQuery fromDomain(String domain) {
+        terms.add(new FromStringTerm("@" + domain));
+        return this;
+    }
+
+    /**
+     * Matches messages whose From header contains the given text.
+     */
+    public ImapQuery from(String text) {
+        terms.add(new FromStringTerm(text));
+        return this;
+    }
+
+    /**
+     * Matches messages whose subject contains the given text.
+     */
+    public ImapQuery subjectContains(String text) {
+        terms.add(new SubjectTerm(text));
+        return this;
+    }
+
+    /**
+     * Matches messages received on or after the given date (IMAP SINCE).
+     */
+    public ImapQuery since(Date date) {
+        terms.add(new ReceivedDateTerm(ComparisonTerm.GE, date));
+        return this;
+    }
+
+    /**
+     * Matches messages received before the given date (IMAP BEFORE).
+     */
+    public ImapQuery before(Date date) {
+        terms.add(new ReceivedDateTerm(ComparisonTerm.LT, date));
+        return this;
+    }
+
+    /**
+     * Matches messages larger than the given number of bytes.
+     */
+    public ImapQuery largerThan(int bytes) {
+        terms.add(new SizeTerm(ComparisonTerm.GT, bytes));
+        return this;
+    }
+
+    /**
+     * Matches messages smaller than the given number of bytes.
+     */
+    public ImapQuery smallerThan(int bytes) {
+        terms.add(new SizeTerm(ComparisonTerm.LT, bytes));
+        return this;
+    }
+
+    /**
+     * Matches messages that carry the given keyword (user flag).
+     */
+    public ImapQuery keyword(String keyword) {
+        terms.add(new FlagTerm(new Flags(keyword), true));
+        return this;
+    }
+
+    /**
+     * Matches messages that do not carry the given keyword (user flag).
+     */
+    public ImapQuery withoutKeyword(String keyword) {
+        terms.add(new FlagTerm(new Flags(keyword), false));
+        return this;
+    }
+
+    /**
+     * Matches messages without the \Seen flag.
+     */
+    public ImapQuery unseen() {
+        terms.add(new FlagTerm(new Flags(Flags.Flag.SEEN), false));
+        return this;
+    }
+
+    /**
+     * Matches messages without the \Answered flag.
+     */
+    public ImapQuery unanswered() {
+        terms.add(new FlagTerm(new Flags(Flags.Flag.ANSWERED), false));
+        return this;
+    }
+
+    /**
+     * Restricts the search to a UID range.
+     *
+     * @param start First UID, inclusive
+     * @param end Last UID, inclusive, or {@link UIDFolder#LASTUID} for no upper bound
+     */
+    public ImapQuery uidRange(long start, long end) {
+        this.uidStart = start;
+        this.uidEnd = end;
+        return this;
+    }
+
+    /**
+     * Adds an arbitrary Jakarta Mail search term.
+     */
+    public ImapQuery and(SearchTerm term) {
+        terms.add(term);
+        return this;
+    }
+
+    /**
+     * Returns the criteria other than the UID range as a single search term.
+     *
+     * @return The combined term, or null if the query has no criteria
+     */
+    public SearchTerm toSearchTerm() {
+        if (terms.isEmpty()) {
+            return null;
+        }
+        if (terms.size() == 1) {
+            return terms.get(0);
+        }
+        return new AndTerm(terms.toArray(new SearchTerm[0]));
+    }
+
+    /**
+     * Runs the query as a single {@code UID SEARCH} on an open folder.
+     *
+     * @param folder The open IMAP folder
+     * @return Matching UIDs in ascending order
+     * @throws MessagingException If the server rejects the search
+     */
+    public long[] execute(IMAPFolder folder) throws MessagingException {
+        SearchTerm term = toSearchTerm();
+        long[] uids = (long[]) folder.doCommand(protocol -> {
+            String charset = term == null || SearchSequence.isAscii(term) ? null : "UTF-8";
+            Argument args;
+            try {
+                args = term == null
+                        ? new Argument().writeAtom("ALL")
+                        : new SearchSequence(protocol).generateSequence(term, charset);
+            } catch (SearchException | IOException e) {
+                throw new ProtocolException("Cannot translate search: " + e.getMessage(), e);
+            }
+            if (uidStart >= 0) {
+                args.writeAtom("UID");
+                String end = uidEnd == UIDFolder.LASTUID ? "*" : String.valueOf(uidEnd);
+                args.writeAtom(Math.max(1, uidStart) + ":" + end);
+            }
+
+            Response[] responses = protocol.command(
+                    charset == null ? "UID SEARCH" : "UID SEARCH CHARSET " + charset, args);
+            Response result = responses[responses.length - 1];
+            long[] matches = new long[0];
+            if (result.isOK()) {
+                matches = collectSearchResults(responses);
+            }
+            protocol.notifyResponseHandlers(responses);
+            protocol.handleResult(result);
+            return matches;
+        });
+
+        // "n:*" also matches the last message when its UID is below n
+        Arrays.sort(uids);
+        if (uidStart > 0) {
+            int first = 0;
+            while (first < uids.length && uids[first] < uidStart) {
+                first++;
+            }
+            uids = Arrays.copyOfRange(uids, first, uids.length);
+        }
+        return uids;
+    }
+
+    /**
+     * Reads the numbers from all untagged SEARCH responses and consumes them.
+     */
+    private static long[] collectSearchResults(Response[] responses) {
+        long[] matches = new long[16];
+        int count = 0;
+        for (int i = 0; i < responses.length; i++) {
+            if (!(responses[i] instanceof IMAPResponse)) {
+                continue;
+            }
+            IMAPResponse response = (IMAPResponse) responses[i];
+            if (response.keyEquals("SEARCH")) {
+                long uid;
+                while ((uid = response.readLong()) != -1) {
+                    if (count == matches.length) {
+                        matches = Arrays.copyOf(matches, count * 2);
+                    }
+                    matches[count++] = uid;
+                }
+                responses[i] = null;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+}
@@ -0,0 +1,251 @@
+package org.example;
+
+import jakarta.mail.MessagingException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Syncs many accounts and folders concurrently.
+ * <p>
+ * Every mailbox is synced with {@link EmailReader#syncNewMessages} on its own
+ * thread (a virtual thread on Java 21+), so a sweep takes about as long as the
+ * slowest mailbox rather than the sum of all of them. A per-host semaphore caps
+ * the number of concurrent syncs against any one IMAP server, so a slow or
+ * rate-limiting server only holds up its own mailboxes. It does not cap
+ * connections: every account and folder keeps its own pooled connection in
+ * {@link ImapConnectionPool} after its sync finishes. Outcomes are put on a shared bounded
+ * queue; when consumers fall behind, sync threads wait for room.
+ * <p>
+ * Checkpoints are not advanced by the sync threads. Once a consumer has
+ * processed an outcome's messages it calls {@link #commit(Outcome)}; until then
+ * the next sync of that mailbox returns the same messages again.
+ */
+public class MailboxSyncCoordinator implements AutoCloseable {
+
+    /** Default number of concurrent syncs per IMAP host. */
+    public static final int DEFAULT_SYNCS_PER_HOST = 4;
+
+    /** Default capacity of the result queue. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private final UidCheckpointStore checkpoints;
+    private final int syncsPerHost;
+    private final BlockingQueue<Outcome> results;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("mailbox-sync");
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Creates a coordinator with the default limits.
+     *
+     * @param checkpoints Store holding the per-folder checkpoints
+     */
+    public MailboxSyncCoordinator(UidCheckpointStore checkpoints) {
+        this(checkpoints, DEFAULT_SYNCS_PER_HOST, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param checkpoints Store holding the per-folder checkpoints
+     * @param syncsPerHost Maximum concurrent syncs against one IMAP host
+     * @param queueCapacity Capacity of the shared result queue
+     */
+    public MailboxSyncCoordinator(UidCheckpointStore checkpoints, int syncsPerHost, int queueCapacity) {
+        if (syncsPerHost < 1) {
+            throw new IllegalArgumentException("syncsPerHost must be positive");
+        }
+        this.checkpoints = checkpoints;
+        this.syncsPerHost = syncsPerHost;
+        this.results = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Starts syncing a mailbox. Its outcome is put on {@link #getResults()}.
+     *
+     * @param mailbox The account and folder to sync
+     */
+    public void submit(Mailbox mailbox) {
+        pending.incrementAndGet();
+        executor.execute(() -> sync(mailbox));
+    }
+
+    /**
+     * Starts syncing every mailbox.
+     *
+     * @param mailboxes The accounts and folders to sync
+     */
+    public void submitAll(Collection<Mailbox> mailboxes) {
+        for (Mailbox mailbox : mailboxes) {
+            submit(mailbox);
+        }
+    }
+
+    /**
+     * Syncs every mailbox and waits until all of them are done.
+     *
+     * @param mailboxes The accounts and folders to sync
+     * @return One outcome per mailbox, in completion order
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public List<Outcome> syncAll(Collection<Mailbox> mailboxes) throws InterruptedException {
+        List<Outcome> outcomes = new ArrayList<>(mailboxes.size());
+        submitAll(mailboxes);
+        for (int i = 0; i < mailboxes.size(); i++) {
+            outcomes.add(results.take());
+        }
+        return outcomes;
+    }
+
+    /**
+     * Advances the checkpoint of a mailbox past an outcome's messages. Call this
+     * after the messages have been processed; failed outcomes are ignored.
+     *
+     * @param outcome A processed outcome
+     * @throws IOException If the checkpoint cannot be written
+     */
+    public void commit(Outcome outcome) throws IOException {
+        if (outcome.getResult() != null) {
+            checkpoints.commit(outcome.getResult());
+        }
+    }
+
+    /**
+     * @return The shared queue receiving the outcome of every submitted mailbox
+     */
+    public BlockingQueue<Outcome> getResults() {
+        return results;
+    }
+
+    /**
+     * @return Number of submitted mailboxes whose outcome is not yet queued
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops all running syncs.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void sync(Mailbox mailbox) {
+        Semaphore permits = hostPermits.computeIfAbsent(mailbox.host, host -> new Semaphore(syncsPerHost));
+        Outcome outcome;
+        try {
+            permits.acquire();
+            try {
+                UidSyncResult result = EmailReader.syncNewMessages(mailbox.host, mailbox.port,
+                        mailbox.username, mailbox.password, mailbox.folderName, checkpoints);
+                outcome = new Outcome(mailbox, result, null);
+            } catch (MessagingException e) {
+                outcome = new Outcome(mailbox, null, e);
+            } catch (RuntimeException e) {
+                outcome = new Outcome(mailbox, null,
+                        new MessagingException("Error syncing " + mailbox + ": " + e.getMessage(), e));
+            } finally {
+                permits.release();
+            }
+            results.put(outcome);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * An account and folder to sync.
+     */
+    public static final class Mailbox {
+        private final String host;
+        private final String port;
+        private final String username;
+        private final String password;
+        private final String folderName;
+
+        public Mailbox(String host, String port, String username, String password, String folderName) {
+            this.host = host;
+            this.port = port;
+            this.username = username;
+            this.password = password;
+            this.folderName = folderName;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getPort() {
+            return port;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getFolderName() {
+            return folderName;
+        }
+
+        @Override
+        public String toString() {
+            return username + "@" + host + ":" + port + "/" + folderName;
+        }
+    }
+
+    /**
+     * The result of syncing one mailbox: either new messages or an error.
+     */
+    public static final class Outcome {
+        private final Mailbox mailbox;
+        private final UidSyncResult result;
+        private final MessagingException error;
+
+        private Outcome(Mailbox mailbox, UidSyncResult result, MessagingException error) {
+            this.mailbox = mailbox;
+            this.result = result;
+            this.error = error;
+        }
+
+        /**
+         * @return The synced mailbox
+         */
+        public Mailbox getMailbox() {
+            return mailbox;
+        }
+
+        /**
+         * @return The sync result, or null if the sync failed
+         */
+        public UidSyncResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return The error, or null if the sync succeeded
+         */
+        public MessagingException getError() {
+            return error;
+        }
+
+        /**
+         * @return Whether the sync succeeded
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
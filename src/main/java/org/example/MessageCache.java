@@ -0,0 +1,438 @@
+package org.example;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of raw RFC 822 message bytes.
+ * <p>
+ * Messages are appended to fixed-size, memory-mapped segment files and found
+ * through an in-memory index keyed by Message-ID and by (folder, UIDVALIDITY,
+ * UID). A hit returns a read-only view of the mapped segment, so repeat access
+ * costs neither network nor a copy. When the cache grows beyond its size bound,
+ * the oldest segment is dropped; entries in it that were read since the
+ * segment filled up are first copied forward, which approximates LRU eviction
+ * at segment granularity. The index is rebuilt from the segment files on open.
+ * <p>
+ * Record layout: {@code int recordLength, short idLength, id, short uidKeyLength,
+ * uidKey, int dataLength, data}. The record length is written last, so a
+ * record torn by a crash reads as the end of the segment. A removal is
+ * recorded as a record with the removed key as its id and a data length of
+ * -1, and is replayed in order on open.
+ */
+public class MessageCache implements AutoCloseable {
+
+    /** Default size of one segment file (64 MB). */
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    /** Default bound on the total size of all segment files (1 GB). */
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    /** Data length marking a removal record. */
+    private static final int REMOVED = -1;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Map<String, Entry> index = new HashMap<>();
+    private long clock;
+
+    /**
+     * Opens a cache with the default segment size and size bound.
+     *
+     * @param directory Directory holding the segment files
+     * @throws IOException If the segments cannot be opened
+     */
+    public MessageCache(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opens a cache, recovering any segments already in the directory.
+     *
+     * @param directory Directory holding the segment files
+     * @param segmentBytes Size of one segment file
+     * @param maxBytes Bound on the total size of all segment files
+     * @throws IOException If the segments cannot be opened
+     */
+    public MessageCache(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Builds the key under which a message is cached by its UID.
+     *
+     * @param folderKey Account and folder (e.g., "user@imap.gmail.com:993/INBOX")
+     * @param uidValidity The folder's UIDVALIDITY
+     * @param uid The message UID
+     * @return The cache key
+     */
+    public static String uidKey(String folderKey, long uidValidity, long uid) {
+        return folderKey + ";" + uidValidity + ";" + uid;
+    }
+
+    /**
+     * Returns the raw bytes of a cached message.
+     *
+     * @param key A Message-ID or a key from {@link #uidKey}
+     * @return A read-only view of the raw message, or null if it is not cached
+     */
+    public synchronized ByteBuffer get(String key) {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = ++clock;
+        return entry.data();
+    }
+
+    /**
+     * Returns a cached message over the mapped bytes. It is parsed lazily on first access.
+     *
+     * @param key A Message-ID or a key from {@link #uidKey}
+     * @return The message, or null if it is not cached
+     * @throws MessagingException If the cached bytes cannot be parsed
+     */
+    public RawMimeMessage getMessage(String key) throws MessagingException {
+        ByteBuffer raw = get(key);
+        return raw == null ? null : new RawMimeMessage(null, raw);
+    }
+
+    /**
+     * Caches a message under its Message-ID and UID key.
+     *
+     * @param uidKey Key from {@link #uidKey}, or null
+     * @param message The message to cache
+     * @throws MessagingException If the message cannot be read
+     * @throws IOException If the cache cannot be written
+     */
+    public void put(String uidKey, Message message) throws MessagingException, IOException {
+        RawMimeMessage raw = RawMimeMessage.copyOf(message);
+        put(raw.getMessageID(), uidKey, raw.getRawBuffer());
+    }
+
+    /**
+     * Caches raw message bytes. Messages too large for a segment are not cached.
+     *
+     * @param messageId The Message-ID, or null
+     * @param uidKey Key from {@link #uidKey}, or null
+     * @param raw The raw RFC 822 bytes
+     * @throws IOException If the cache cannot be written
+     */
+    public void put(String messageId, String uidKey, byte[] raw) throws IOException {
+        put(messageId, uidKey, ByteBuffer.wrap(raw));
+    }
+
+    /**
+     * Caches the remaining bytes of a buffer. Messages too large for a segment are not cached.
+     *
+     * @param messageId The Message-ID, or null
+     * @param uidKey Key from {@link #uidKey}, or null
+     * @param raw The raw RFC 822 bytes
+     * @throws IOException If the cache cannot be written
+     */
+    public synchronized void put(String messageId, String uidKey, ByteBuffer raw) throws IOException {
+        if (recordLength(messageId, uidKey, raw.remaining()) > segmentBytes) {
+            return;
+        }
+        Entry entry = append(messageId, uidKey, raw);
+        entry.lastAccess = ++clock;
+        evictIfNeeded();
+    }
+
+    /**
+     * Removes a message from the index and records the removal, so it stays
+     * removed when the cache is opened again. Its space is reclaimed when its
+     * segment is evicted.
+     *
+     * @param key A Message-ID or a key from {@link #uidKey}
+     * @throws IOException If the removal cannot be recorded
+     */
+    public synchronized void remove(String key) throws IOException {
+        if (unindex(key)) {
+            appendRemoval(key);
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * @return Number of cache keys currently indexed
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Flushes all segments to disk.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Writes a record to the active segment, rolling to a new segment if it is full.
+     */
+    private Entry append(String messageId, String uidKey, ByteBuffer data) throws IOException {
+        int length = recordLength(messageId, uidKey, data.remaining());
+        Segment segment = segmentFor(length);
+
+        ByteBuffer out = segment.buffer.duplicate();
+        int start = segment.position;
+        out.position(start + Integer.BYTES);
+        writeKey(out, messageId);
+        writeKey(out, uidKey);
+        out.putInt(data.remaining());
+        int dataOffset = out.position();
+        out.put(data.duplicate());
+        // Publish the record by writing its length last
+        out.putInt(start, length);
+        segment.position = start + length;
+
+        Entry entry = new Entry(segment, dataOffset, length - (dataOffset - start), messageId, uidKey);
+        segment.entries.add(entry);
+        register(entry);
+        return entry;
+    }
+
+    /**
+     * Writes a removal record for a key to the active segment.
+     */
+    private void appendRemoval(String key) throws IOException {
+        int length = recordLength(key, null, 0);
+        Segment segment = segmentFor(length);
+
+        ByteBuffer out = segment.buffer.duplicate();
+        int start = segment.position;
+        out.position(start + Integer.BYTES);
+        writeKey(out, key);
+        writeKey(out, null);
+        out.putInt(REMOVED);
+        out.putInt(start, length);
+        segment.position = start + length;
+    }
+
+    /**
+     * Returns the active segment, rolling to a new one if the record does not fit.
+     */
+    private Segment segmentFor(int length) throws IOException {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.position + length > segmentBytes) {
+            if (segment != null) {
+                segment.sealedAt = clock;
+            }
+            long number = segment == null ? 0 : segment.number + 1;
+            segment = Segment.open(directory, number, segmentBytes);
+            segments.addLast(segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Drops the oldest segments until the cache fits its size bound, copying
+     * entries read since the segment filled up into the active segment.
+     */
+    private void evictIfNeeded() throws IOException {
+        while ((long) segments.size() * segmentBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.removeFirst();
+            for (Entry entry : oldest.entries) {
+                if (!entry.isIndexed(index)) {
+                    continue;
+                }
+                // Carry over only the keys still pointing at this entry
+                String messageId = entry.messageId != null && index.get(entry.messageId) == entry
+                        ? entry.messageId : null;
+                String uidKey = entry.uidKey != null && index.get(entry.uidKey) == entry ? entry.uidKey : null;
+                unregister(entry);
+                if (entry.lastAccess > oldest.sealedAt) {
+                    Entry moved = append(messageId, uidKey, entry.data());
+                    moved.lastAccess = entry.lastAccess;
+                }
+            }
+            oldest.delete();
+        }
+    }
+
+    /**
+     * Maps existing segment files and rebuilds the index from their records.
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.filter(path -> path.getFileName().toString().matches("segment-\\d+\\.dat"))
+                    .sorted()
+                    .forEach(files::add);
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long number = Long.parseLong(name.substring("segment-".length(), name.length() - ".dat".length()));
+            Segment segment = Segment.open(directory, number, segmentBytes);
+            segments.addLast(segment);
+
+            ByteBuffer in = segment.buffer.duplicate();
+            int position = 0;
+            while (position + Integer.BYTES <= segmentBytes) {
+                int length = in.getInt(position);
+                if (length <= 0 || position + length > segmentBytes) {
+                    break;
+                }
+                in.position(position + Integer.BYTES);
+                String messageId = readKey(in);
+                String uidKey = readKey(in);
+                int dataLength = in.getInt();
+                if (dataLength == REMOVED) {
+                    unindex(messageId);
+                } else {
+                    Entry entry = new Entry(segment, in.position(), dataLength, messageId, uidKey);
+                    segment.entries.add(entry);
+                    register(entry);
+                }
+                position += length;
+            }
+            segment.position = position;
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Indexes an entry under its keys. An entry already indexed under one of
+     * them loses only that key; the same message cached from another folder
+     * keeps its UID key.
+     */
+    private void register(Entry entry) {
+        if (entry.messageId != null) {
+            index.put(entry.messageId, entry);
+        }
+        if (entry.uidKey != null) {
+            index.put(entry.uidKey, entry);
+        }
+    }
+
+    /**
+     * Removes the entry indexed under a key from all its keys.
+     *
+     * @return Whether an entry was indexed under the key
+     */
+    private boolean unindex(String key) {
+        Entry entry = key == null ? null : index.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        unregister(entry);
+        return true;
+    }
+
+    private void unregister(Entry entry) {
+        if (entry != null) {
+            index.remove(entry.messageId, entry);
+            index.remove(entry.uidKey, entry);
+        }
+    }
+
+    private static int recordLength(String messageId, String uidKey, int dataLength) {
+        return Integer.BYTES + keyLength(messageId) + keyLength(uidKey) + Integer.BYTES + dataLength;
+    }
+
+    private static int keyLength(String key) {
+        return Short.BYTES + (key == null ? 0 : key.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void writeKey(ByteBuffer out, String key) {
+        byte[] bytes = key == null ? new byte[0] : key.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String readKey(ByteBuffer in) {
+        int length = in.getShort() & 0xffff;
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A memory-mapped segment file.
+     */
+    private static final class Segment {
+        private final long number;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private final List<Entry> entries = new ArrayList<>();
+        private int position;
+        private long sealedAt = Long.MAX_VALUE;
+
+        private Segment(long number, Path file, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private static Segment open(Path directory, long number, int size) throws IOException {
+            Path file = directory.resolve(String.format("segment-%08d.dat", number));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(number, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        private void delete() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * The location of one cached message.
+     */
+    private static final class Entry {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final String messageId;
+        private final String uidKey;
+        private long lastAccess;
+
+        private Entry(Segment segment, int offset, int length, String messageId, String uidKey) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.messageId = messageId;
+            this.uidKey = uidKey;
+        }
+
+        private ByteBuffer data() {
+            ByteBuffer view = segment.buffer.asReadOnlyBuffer();
+            view.position(offset).limit(offset + length);
+            return view.slice();
+        }
+
+        private boolean isIndexed(Map<String, Entry> index) {
+            return (messageId != null && index.get(messageId) == this)
+                    || (uidKey != null && index.get(uidKey) == this);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.example;
+
+import com.sun.mail.imap.IMAPFolder;
+import jakarta.mail.*;
+import jakarta.mail.internet.MimeMessage;
+import java.util.Date;
+
+/**
+ * Lightweight, detached metadata of a message, filled from a single bulk FETCH.
+ * <p>
+ * Holds the envelope, flags, UID, size, content type and threading headers of a
+ * message without its body, so large result sets can be listed without
+ * downloading any message content.
+ */
+public class MessageEnvelope {
+
+    private final long uid;
+    private final int messageNumber;
+    private final String messageId;
+    private final String inReplyTo;
+    private final String references;
+    private final Address[] from;
+    private final Address[] to;
+    private final Address[] replyTo;
+    private final String subject;
+    private final Date sentDate;
+    private final Date receivedDate;
+    private final Flags flags;
+    private final int size;
+    private final String contentType;
+
+    private MessageEnvelope(long uid, Message message) throws MessagingException {
+        this.uid = uid;
+        this.messageNumber = message.getMessageNumber();
+        this.from = message.getFrom();
+        this.to = message.getRecipients(Message.RecipientType.TO);
+        this.replyTo = message.getReplyTo();
+        this.subject = message.getSubject();
+        this.sentDate = message.getSentDate();
+        this.receivedDate = message.getReceivedDate();
+        this.flags = message.getFlags();
+        this.size = message.getSize();
+        this.contentType = message.getContentType();
+        if (message instanceof MimeMessage) {
+            MimeMessage mimeMessage = (MimeMessage) message;
+            this.messageId = mimeMessage.getMessageID();
+            this.inReplyTo = mimeMessage.getHeader("In-Reply-To", " ");
+            this.references = mimeMessage.getHeader("References", " ");
+        } else {
+            this.messageId = null;
+            this.inReplyTo = null;
+            this.references = null;
+        }
+    }
+
+    /**
+     * Returns the fetch profile that loads everything an envelope needs:
+     * ENVELOPE, FLAGS, UID, BODYSTRUCTURE, size and the In-Reply-To and References headers.
+     *
+     * @return A new fetch profile
+     */
+    public static FetchProfile fetchProfile() {
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.ENVELOPE);
+        profile.add(FetchProfile.Item.FLAGS);
+        profile.add(FetchProfile.Item.CONTENT_INFO);
+        profile.add(FetchProfile.Item.SIZE);
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        profile.add(IMAPFolder.FetchProfileItem.INTERNALDATE);
+        profile.add("In-Reply-To");
+        profile.add("References");
+        return profile;
+    }
+
+    /**
+     * Creates an envelope from a message whose metadata was prefetched with
+     * {@link #fetchProfile()}.
+     *
+     * @param folder The open folder the message belongs to
+     * @param message The prefetched message
+     * @return The detached envelope
+     * @throws MessagingException If the metadata cannot be read
+     */
+    public static MessageEnvelope of(UIDFolder folder, Message message) throws MessagingException {
+        return new MessageEnvelope(folder.getUID(message), message);
+    }
+
+    /**
+     * @return The message UID within its folder
+     */
+    public long getUid() {
+        return uid;
+    }
+
+    /**
+     * @return The message sequence number at fetch time
+     */
+    public int getMessageNumber() {
+        return messageNumber;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getInReplyTo() {
+        return inReplyTo;
+    }
+
+    public String getReferences() {
+        return references;
+    }
+
+    public Address[] getFrom() {
+        return from;
+    }
+
+    public Address[] getTo() {
+        return to;
+    }
+
+    public Address[] getReplyTo() {
+        return replyTo;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public Date getSentDate() {
+        return sentDate;
+    }
+
+    /**
+     * @return The server's INTERNALDATE for the message
+     */
+    public Date getReceivedDate() {
+        return receivedDate;
+    }
+
+    public Flags getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return The size of the message in bytes, as reported by the server
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The top-level content type from BODYSTRUCTURE
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String toString() {
+        return "UID " + uid + " " + (from != null && from.length > 0 ? from[0] : "") + ": " + subject;
+    }
+}
@@ -0,0 +1,360 @@
+package org.example;
+
+import com.sun.mail.iap.ByteArray;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.BODY;
+import com.sun.mail.imap.protocol.BODYSTRUCTURE;
+import jakarta.mail.*;
+import jakarta.mail.internet.MimeUtility;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A lazy reference to a message on the IMAP server.
+ * <p>
+ * The handle keeps only the folder coordinates, the UID and the prefetched
+ * envelope. Body parts are fetched on demand with {@code BODY.PEEK[section]}
+ * through the pooled connection, so nothing is downloaded until it is read and
+ * reading does not set the {@code \Seen} flag. Fetched parts are kept in a
+ * shared size-bounded cache. Large parts can be read partially, up to a byte
+ * budget, with {@link #getPartText(String, int)}.
+ */
+public class MessageHandle {
+
+    private final String host;
+    private final String port;
+    private final String username;
+    private final String password;
+    private final String folderName;
+    private final long uidValidity;
+    private final MessageEnvelope envelope;
+    private BODYSTRUCTURE bodyStructure;
+
+    public MessageHandle(String host, String port, String username, String password,
+                         String folderName, long uidValidity, MessageEnvelope envelope) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.folderName = folderName;
+        this.uidValidity = uidValidity;
+        this.envelope = envelope;
+    }
+
+    /**
+     * @return The prefetched envelope
+     */
+    public MessageEnvelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * @return The message UID
+     */
+    public long getUid() {
+        return envelope.getUid();
+    }
+
+    /**
+     * @return The UIDVALIDITY of the folder the UID belongs to
+     */
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    /**
+     * @return The name of the folder containing the message
+     */
+    public String getFolderName() {
+        return folderName;
+    }
+
+    /**
+     * Returns the MIME structure of the message, fetching it on first use.
+     *
+     * @return The message's BODYSTRUCTURE
+     * @throws MessagingException If the structure cannot be fetched
+     */
+    public synchronized BODYSTRUCTURE getBodyStructure() throws MessagingException {
+        if (bodyStructure == null) {
+            bodyStructure = (BODYSTRUCTURE) withMessage((folder, msgno) ->
+                    folder.doCommand(protocol -> protocol.fetchBodyStructure(msgno)));
+        }
+        return bodyStructure;
+    }
+
+    /**
+     * Returns the raw, still transfer-encoded bytes of a body part.
+     *
+     * @param section IMAP part specifier (e.g., "1", "1.2")
+     * @return The encoded part content
+     * @throws MessagingException If the part cannot be fetched
+     */
+    public byte[] getRawPart(String section) throws MessagingException {
+        String cacheKey = cacheKey(section);
+        byte[] cached = BodyPartCache.shared().get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        BODY body = (BODY) withMessage((folder, msgno) ->
+                folder.doCommand(protocol -> protocol.peekBody(msgno, section)));
+        if (body == null) {
+            throw new MessagingException("No content returned for part " + section + " of UID " + getUid());
+        }
+        byte[] bytes = toBytes(body.getByteArray());
+        BodyPartCache.shared().put(cacheKey, bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns a text part decoded according to its transfer encoding and charset.
+     *
+     * @param section IMAP part specifier (e.g., "1", "1.2")
+     * @return The decoded text
+     * @throws MessagingException If the part cannot be fetched or does not exist
+     * @throws IOException If the part cannot be decoded
+     */
+    public String getPartText(String section) throws MessagingException, IOException {
+        BODYSTRUCTURE part = findSection(getBodyStructure(), section);
+        if (part == null) {
+            throw new MessagingException("No part " + section + " in UID " + getUid());
+        }
+        return decode(getRawPart(section), part);
+    }
+
+    /**
+     * Returns at most {@code maxBytes} of a text part, fetched with a partial
+     * {@code BODY.PEEK[section]<0.maxBytes>} so the rest never crosses the wire.
+     *
+     * @param section IMAP part specifier (e.g., "1", "1.2")
+     * @param maxBytes Budget of encoded bytes to fetch for the part
+     * @return The decoded text, flagged as truncated if the part is larger than the budget
+     * @throws MessagingException If the part cannot be fetched or does not exist
+     * @throws IOException If the part cannot be decoded
+     */
+    public PartContent getPartText(String section, int maxBytes) throws MessagingException, IOException {
+        BODYSTRUCTURE part = findSection(getBodyStructure(), section);
+        if (part == null) {
+            throw new MessagingException("No part " + section + " in UID " + getUid());
+        }
+        if (part.size >= 0 && part.size <= maxBytes) {
+            byte[] raw = getRawPart(section);
+            return new PartContent(decode(raw, part), false, raw.length, raw.length);
+        }
+
+        // Reuse a fully cached part, otherwise fetch only the leading bytes
+        byte[] raw = BodyPartCache.shared().get(cacheKey(section));
+        if (raw != null) {
+            raw = Arrays.copyOf(raw, Math.min(raw.length, maxBytes));
+        } else {
+            String cacheKey = cacheKey(section) + "<0." + maxBytes + ">";
+            raw = BodyPartCache.shared().get(cacheKey);
+            if (raw == null) {
+                BODY body = (BODY) withMessage((folder, msgno) ->
+                        folder.doCommand(protocol -> protocol.peekBody(msgno, section, 0, maxBytes)));
+                raw = body == null ? new byte[0] : toBytes(body.getByteArray());
+                BodyPartCache.shared().put(cacheKey, raw);
+            }
+        }
+        boolean truncated = part.size < 0 ? raw.length >= maxBytes : part.size > raw.length;
+        byte[] whole = truncated ? trimToWholeUnits(raw, part.encoding) : raw;
+        return new PartContent(decode(whole, part), truncated, raw.length, part.size);
+    }
+
+    /**
+     * Returns the preferred text body of the message within a byte budget.
+     * Attachments are never fetched.
+     *
+     * @param preference Whether to prefer the plain or the HTML body
+     * @param maxBytes Budget of encoded bytes to fetch for the body
+     * @return The decoded body text, or empty content if the message has no text part
+     * @throws MessagingException If the body cannot be fetched
+     * @throws IOException If the body cannot be decoded
+     */
+    public PartContent getBodyText(MimeWalker.TextPreference preference, int maxBytes)
+            throws MessagingException, IOException {
+        String preferred = preference == MimeWalker.TextPreference.HTML ? "html" : "plain";
+        String section = findTextSection(getBodyStructure(), "", preferred);
+        if (section == null) {
+            section = findTextSection(getBodyStructure(), "", null);
+        }
+        if (section == null) {
+            return new PartContent("", false, 0, 0);
+        }
+        return getPartText(section, maxBytes);
+    }
+
+    /**
+     * Finds the section number of the first inline text part with the given
+     * subtype, or of any text part if {@code subtype} is null.
+     */
+    private static String findTextSection(BODYSTRUCTURE node, String prefix, String subtype) {
+        if (node.isMulti()) {
+            for (int i = 0; i < node.bodies.length; i++) {
+                String section = findTextSection(node.bodies[i], prefix + (i + 1) + ".", subtype);
+                if (section != null) {
+                    return section;
+                }
+            }
+            return null;
+        }
+        boolean attachment = Part.ATTACHMENT.equalsIgnoreCase(node.disposition);
+        if (!attachment && "text".equalsIgnoreCase(node.type)
+                && (subtype == null || subtype.equalsIgnoreCase(node.subtype))) {
+            // A single-part message body is section 1
+            return prefix.isEmpty() ? "1" : prefix.substring(0, prefix.length() - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Drops a trailing incomplete encoding unit from a truncated part so that
+     * decoding does not fail on a cut base64 quantum or quoted-printable escape.
+     */
+    static byte[] trimToWholeUnits(byte[] raw, String encoding) {
+        int end = raw.length;
+        if ("base64".equalsIgnoreCase(encoding)) {
+            int significant = 0;
+            for (byte b : raw) {
+                if (b != '\r' && b != '\n') {
+                    significant++;
+                }
+            }
+            // Remove base64 characters beyond the last complete group of four
+            int excess = significant % 4;
+            while (excess > 0 && end > 0) {
+                end--;
+                if (raw[end] != '\r' && raw[end] != '\n') {
+                    excess--;
+                }
+            }
+        } else if ("quoted-printable".equalsIgnoreCase(encoding)) {
+            // An escape is "=XX"; cut before an '=' in the last two bytes
+            for (int i = Math.max(0, end - 2); i < end; i++) {
+                if (raw[i] == '=') {
+                    end = i;
+                    break;
+                }
+            }
+        }
+        return end == raw.length ? raw : Arrays.copyOf(raw, end);
+    }
+
+    /**
+     * Decodes the transfer encoding and charset of a fetched part.
+     */
+    static String decode(byte[] raw, BODYSTRUCTURE part) throws MessagingException, IOException {
+        InputStream input = new ByteArrayInputStream(raw);
+        if (part.encoding != null) {
+            input = MimeUtility.decode(input, part.encoding);
+        }
+        try (InputStream decoded = input) {
+            return new String(decoded.readAllBytes(), charsetOf(part));
+        }
+    }
+
+    /**
+     * Returns the Java charset named in a part's Content-Type, or US-ASCII.
+     */
+    static Charset charsetOf(BODYSTRUCTURE part) {
+        String charset = part.cParams != null ? part.cParams.get("charset") : null;
+        if (charset == null) {
+            return StandardCharsets.US_ASCII;
+        }
+        try {
+            return Charset.forName(MimeUtility.javaCharset(charset));
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * Locates the structure of a part by its IMAP section number.
+     *
+     * @param root The message's BODYSTRUCTURE
+     * @param section IMAP part specifier (e.g., "1", "2.1")
+     * @return The part's structure, or null if there is no such part
+     */
+    static BODYSTRUCTURE findSection(BODYSTRUCTURE root, String section) {
+        BODYSTRUCTURE container = root;
+        BODYSTRUCTURE node = null;
+        for (String token : section.split("\\.")) {
+            if (container == null) {
+                return null;
+            }
+            int index;
+            try {
+                index = Integer.parseInt(token);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (container.isMulti()) {
+                if (index < 1 || index > container.bodies.length) {
+                    return null;
+                }
+                node = container.bodies[index - 1];
+            } else if (index == 1) {
+                // A non-multipart body has exactly one part
+                node = container;
+            } else {
+                return null;
+            }
+
+            // Descend into a multipart or into the body of an enclosed message
+            if (node.isNested()) {
+                container = node.bodies != null && node.bodies.length > 0 ? node.bodies[0] : null;
+            } else if (node.isMulti()) {
+                container = node;
+            } else {
+                container = null;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Borrows the pooled folder, resolves the UID to a sequence number and runs the action.
+     */
+    Object withMessage(MessageAction action) throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            IMAPFolder folder = (IMAPFolder) lease.getFolder();
+            if (folder.getUIDValidity() != uidValidity) {
+                throw new MessagingException("UIDVALIDITY of " + folderName + " changed; UID "
+                        + getUid() + " is no longer valid");
+            }
+            Message message = folder.getMessageByUID(getUid());
+            if (message == null) {
+                throw new MessageRemovedException("UID " + getUid() + " no longer exists in " + folderName);
+            }
+            return action.run(folder, message.getMessageNumber());
+        }
+    }
+
+    private static byte[] toBytes(ByteArray content) {
+        return Arrays.copyOfRange(content.getBytes(), content.getStart(),
+                content.getStart() + content.getCount());
+    }
+
+    private String cacheKey(String section) {
+        return username + "@" + host + ":" + port + "/" + folderName + ";"
+                + uidValidity + ";" + getUid() + ";" + section;
+    }
+
+    /**
+     * An operation on a message identified by its current sequence number.
+     */
+    interface MessageAction {
+        Object run(IMAPFolder folder, int msgno) throws MessagingException;
+    }
+
+    @Override
+    public String toString() {
+        return envelope.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publishes message handles to a {@link Flow.Subscriber} with backpressure.
+ * <p>
+ * Each subscription gets its own {@link MessageWindowIterator}. Windows are
+ * fetched only as the subscriber requests more items, so a slow consumer never
+ * causes more than one window to be buffered. When the requested items are
+ * delivered the iterator is checked for more, so the subscriber is completed as
+ * soon as the source is exhausted, without having to request again. Delivery
+ * runs on the given executor and never concurrently for the same subscription.
+ */
+public class MessagePublisher implements Flow.Publisher<MessageHandle> {
+
+    private final Supplier<Iterator<MessageHandle>> source;
+    private final Executor executor;
+
+    /**
+     * Creates a publisher.
+     *
+     * @param source Creates a fresh iterator for each subscriber
+     * @param executor Runs the fetch and delivery work
+     */
+    public MessagePublisher(Supplier<Iterator<MessageHandle>> source, Executor executor) {
+        this.source = source;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super MessageHandle> subscriber) {
+        WindowSubscription subscription = new WindowSubscription(subscriber, source.get());
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Delivers items from the iterator as demand arrives.
+     */
+    private final class WindowSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super MessageHandle> subscriber;
+        private final Iterator<MessageHandle> iterator;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean terminated = new AtomicBoolean();
+        private volatile Throwable invalidRequest;
+
+        private WindowSubscription(Flow.Subscriber<? super MessageHandle> subscriber,
+                                   Iterator<MessageHandle> iterator) {
+            this.subscriber = subscriber;
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " items; must be positive");
+            } else {
+                // Add to the outstanding demand, capping at Long.MAX_VALUE (unbounded)
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            terminated.set(true);
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Emits as many items as there is demand for, then completes if the
+         * iterator is exhausted. Completion does not need outstanding demand.
+         */
+        private void drain() {
+            if (terminated.get()) {
+                return;
+            }
+            if (invalidRequest != null) {
+                fail(invalidRequest);
+                return;
+            }
+            try {
+                long requested = demand.get();
+                long emitted = 0;
+                while (emitted != requested && !terminated.get() && iterator.hasNext()) {
+                    subscriber.onNext(iterator.next());
+                    emitted++;
+                }
+                if (requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+                if (!terminated.get() && !iterator.hasNext() && terminated.compareAndSet(false, true)) {
+                    subscriber.onComplete();
+                }
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (terminated.compareAndSet(false, true)) {
+                subscriber.onError(error);
+            }
+        }
+    }
+}
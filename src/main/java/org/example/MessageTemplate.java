@@ -0,0 +1,233 @@
+package org.example;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An email template with a subject, a plain-text body and an optional HTML body.
+ * <p>
+ * Placeholders are written {@code {{name}}}. In the HTML body their values are
+ * HTML-escaped; write {@code {{{name}}}} to insert a value as is. Templates are
+ * parsed once by {@link #compile(String, String, String)} into literal and
+ * placeholder segments, so rendering is a single pass that appends into a
+ * per-thread buffer reused across renders. Compiled templates are immutable
+ * and can be shared between threads.
+ */
+public final class MessageTemplate {
+
+    /** Buffers that grew beyond this are not kept for reuse. */
+    private static final int MAX_POOLED_BUFFER_CHARS = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private final Segment[] subject;
+    private final Segment[] text;
+    private final Segment[] html;
+
+    private MessageTemplate(Segment[] subject, Segment[] text, Segment[] html) {
+        this.subject = subject;
+        this.text = text;
+        this.html = html;
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param subject Subject template
+     * @param text Plain-text body template
+     * @param html HTML body template, or null to send plain text only
+     * @return The compiled template
+     * @throws IllegalArgumentException If a placeholder is not closed or has no name
+     */
+    public static MessageTemplate compile(String subject, String text, String html) {
+        return new MessageTemplate(parse(subject, false), parse(text, false),
+                html == null ? null : parse(html, true));
+    }
+
+    /**
+     * Renders the subject.
+     *
+     * @param values Placeholder values
+     * @return The subject
+     * @throws MessagingException If a placeholder has no value
+     */
+    public String renderSubject(Map<String, ?> values) throws MessagingException {
+        return render(subject, values);
+    }
+
+    /**
+     * Renders the plain-text body.
+     *
+     * @param values Placeholder values
+     * @return The text
+     * @throws MessagingException If a placeholder has no value
+     */
+    public String renderText(Map<String, ?> values) throws MessagingException {
+        return render(text, values);
+    }
+
+    /**
+     * Renders the HTML body.
+     *
+     * @param values Placeholder values
+     * @return The HTML, or null if the template has no HTML body
+     * @throws MessagingException If a placeholder has no value
+     */
+    public String renderHtml(Map<String, ?> values) throws MessagingException {
+        return html == null ? null : render(html, values);
+    }
+
+    /**
+     * Sets a message's subject and content from the template. With an HTML
+     * body the content is multipart/alternative with the text part first.
+     *
+     * @param message The message to fill
+     * @param values Placeholder values
+     * @throws MessagingException If a placeholder has no value or the content cannot be set
+     */
+    public void fill(MimeMessage message, Map<String, ?> values) throws MessagingException {
+        message.setSubject(renderSubject(values), "UTF-8");
+        if (html == null) {
+            message.setText(renderText(values), "UTF-8");
+            return;
+        }
+
+        // Create the alternative parts, plainest first
+        MimeBodyPart textPart = new MimeBodyPart();
+        textPart.setText(renderText(values), "UTF-8");
+        MimeBodyPart htmlPart = new MimeBodyPart();
+        htmlPart.setText(renderHtml(values), "UTF-8", "html");
+
+        MimeMultipart multipart = new MimeMultipart("alternative");
+        multipart.addBodyPart(textPart);
+        multipart.addBodyPart(htmlPart);
+        message.setContent(multipart);
+    }
+
+    /**
+     * Creates a message from the template.
+     *
+     * @param session Session for the message, or null
+     * @param from Sender's email address
+     * @param to Recipient's email address
+     * @param values Placeholder values
+     * @return The message, ready to send
+     * @throws MessagingException If an address is invalid or a placeholder has no value
+     */
+    public MimeMessage createMessage(Session session, String from, String to,
+                                     Map<String, ?> values) throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(from));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+        fill(message, values);
+        message.setSentDate(new Date());
+        return message;
+    }
+
+    private static String render(Segment[] segments, Map<String, ?> values) throws MessagingException {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        try {
+            for (Segment segment : segments) {
+                if (segment.name == null) {
+                    buffer.append(segment.literal);
+                    continue;
+                }
+                Object value = values.get(segment.name);
+                if (value == null) {
+                    throw new MessagingException("No value for template placeholder \"" + segment.name + "\"");
+                }
+                if (segment.escape) {
+                    appendEscaped(buffer, value.toString());
+                } else {
+                    buffer.append(value);
+                }
+            }
+            return buffer.toString();
+        } finally {
+            if (buffer.capacity() > MAX_POOLED_BUFFER_CHARS) {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    private static void appendEscaped(StringBuilder buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    buffer.append("&amp;");
+                    break;
+                case '<':
+                    buffer.append("&lt;");
+                    break;
+                case '>':
+                    buffer.append("&gt;");
+                    break;
+                case '"':
+                    buffer.append("&quot;");
+                    break;
+                case '\'':
+                    buffer.append("&#39;");
+                    break;
+                default:
+                    buffer.append(c);
+            }
+        }
+    }
+
+    private static Segment[] parse(String template, boolean html) {
+        List<Segment> segments = new ArrayList<>();
+        int position = 0;
+        while (position < template.length()) {
+            int open = template.indexOf("{{", position);
+            if (open < 0) {
+                break;
+            }
+            boolean raw = template.startsWith("{{{", open);
+            String closing = raw ? "}}}" : "}}";
+            int start = open + (raw ? 3 : 2);
+            int close = template.indexOf(closing, start);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at " + open + " in template: " + template);
+            }
+            String name = template.substring(start, close).trim();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty placeholder at " + open + " in template: " + template);
+            }
+            if (open > position) {
+                segments.add(new Segment(template.substring(position, open), null, false));
+            }
+            segments.add(new Segment(null, name, html && !raw));
+            position = close + closing.length();
+        }
+        if (position < template.length()) {
+            segments.add(new Segment(template.substring(position), null, false));
+        }
+        return segments.toArray(new Segment[0]);
+    }
+
+    /**
+     * A literal piece of a template, or a placeholder.
+     */
+    private static final class Segment {
+        private final String literal;
+        private final String name;
+        private final boolean escape;
+
+        private Segment(String literal, String name, boolean escape) {
+            this.literal = literal;
+            this.name = name;
+            this.escape = escape;
+        }
+    }
+}
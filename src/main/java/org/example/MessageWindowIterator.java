@@ -0,0 +1,130 @@
+package org.example;
+
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPMessage;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the messages of a folder in fixed-size windows of UIDs.
+ * <p>
+ * The matching UIDs are determined once with a server-side search; envelopes
+ * are then fetched one window at a time, only when the consumer reaches it.
+ * At most one window of handles is held at a time, and the pooled connection
+ * is returned between windows, so memory stays fixed regardless of folder size.
+ * Errors are thrown as {@link MessagingRuntimeException}.
+ */
+public class MessageWindowIterator implements Iterator<MessageHandle> {
+
+    /** Default number of messages fetched per window. */
+    public static final int DEFAULT_WINDOW_SIZE = 200;
+
+    private final String host;
+    private final String port;
+    private final String username;
+    private final String password;
+    private final String folderName;
+    private final ImapQuery query;
+    private final int windowSize;
+
+    private long[] uids;
+    private int nextUid;
+    private List<MessageHandle> window = new ArrayList<>();
+    private int nextInWindow;
+
+    /**
+     * Creates an iterator over the messages matching a query.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param folderName Folder to iterate
+     * @param query Search criteria, or null for every message
+     * @param windowSize Number of messages fetched per window
+     */
+    public MessageWindowIterator(String host, String port, String username, String password,
+                                 String folderName, ImapQuery query, int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.folderName = folderName;
+        this.query = query != null ? query : new ImapQuery();
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextInWindow < window.size()) {
+            return true;
+        }
+        try {
+            // Fetch windows until one yields messages or the UIDs run out;
+            // a window can come back empty if its messages were expunged
+            while (nextInWindow >= window.size()) {
+                if (uids != null && nextUid >= uids.length) {
+                    return false;
+                }
+                fetchNextWindow();
+            }
+            return true;
+        } catch (MessagingException e) {
+            throw new MessagingRuntimeException(e);
+        }
+    }
+
+    @Override
+    public MessageHandle next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        MessageHandle handle = window.get(nextInWindow);
+        // Drop the reference so the window can be collected as it is consumed
+        window.set(nextInWindow++, null);
+        return handle;
+    }
+
+    /**
+     * Runs the search on first use, then fetches envelopes for the next window of UIDs.
+     */
+    private void fetchNextWindow() throws MessagingException {
+        try (ImapConnectionPool.Lease lease = ImapConnectionPool.getDefault()
+                .borrow(host, port, username, password, folderName, Folder.READ_ONLY)) {
+            IMAPFolder folder = (IMAPFolder) lease.getFolder();
+            if (uids == null) {
+                uids = query.execute(folder);
+                nextUid = 0;
+            }
+
+            long[] windowUids = Arrays.copyOfRange(uids, nextUid, Math.min(uids.length, nextUid + windowSize));
+            nextUid += windowUids.length;
+
+            List<Message> present = new ArrayList<>(windowUids.length);
+            for (Message message : folder.getMessagesByUID(windowUids)) {
+                if (message != null) {
+                    present.add(message);
+                }
+            }
+            Message[] messages = present.toArray(new Message[0]);
+            List<MessageEnvelope> envelopes = EmailReader.fetchEnvelopes(folder, messages);
+
+            // Envelopes are detached copies; release the folder's cached metadata
+            for (Message message : messages) {
+                ((IMAPMessage) message).invalidateHeaders();
+            }
+
+            window = EmailReader.toHandles(lease, password, envelopes);
+            nextInWindow = 0;
+        }
+    }
+}
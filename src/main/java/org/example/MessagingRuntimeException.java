@@ -0,0 +1,22 @@
+package org.example;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * Unchecked wrapper for a {@link MessagingException} raised where the calling
+ * API cannot throw checked exceptions, such as iterators, streams and reactive
+ * subscribers.
+ */
+public class MessagingRuntimeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MessagingRuntimeException(MessagingException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized MessagingException getCause() {
+        return (MessagingException) super.getCause();
+    }
+}
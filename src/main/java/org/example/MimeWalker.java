@@ -0,0 +1,215 @@
+package org.example;
+
+import jakarta.mail.*;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.ParseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extracts the readable text of a message by walking its MIME tree.
+ * <p>
+ * Every part is visited. In multipart/alternative the part matching the
+ * configured {@link TextPreference} is chosen, falling back to the other text
+ * type; all other multiparts contribute the text of each of their parts.
+ * Text is decoded incrementally from {@link Part#getInputStream()} and stops at a
+ * per-message byte budget. Attachments and non-text parts are skipped without
+ * being decoded.
+ */
+public class MimeWalker {
+
+    /**
+     * Which body to take from multipart/alternative.
+     */
+    public enum TextPreference {
+        PLAIN,
+        HTML
+    }
+
+    /** Default per-message budget of decoded text bytes (1 MB). */
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final TextPreference preference;
+    private final int maxBytes;
+
+    /**
+     * Creates a walker that prefers HTML bodies and uses the default byte budget.
+     */
+    public MimeWalker() {
+        this(TextPreference.HTML, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a walker with a custom preference and byte budget.
+     *
+     * @param preference Which body to take from multipart/alternative
+     * @param maxBytes Maximum number of decoded bytes read per message
+     */
+    public MimeWalker(TextPreference preference, int maxBytes) {
+        this.preference = preference;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Extracts the text of a message or body part.
+     *
+     * @param part The message or part to walk
+     * @return The extracted text, possibly empty
+     * @throws MessagingException If the MIME structure cannot be read
+     * @throws IOException If a part cannot be decoded
+     */
+    public String extractText(Part part) throws MessagingException, IOException {
+        return extract(part).getText();
+    }
+
+    /**
+     * Extracts the text of a message or body part and reports whether the byte
+     * budget cut it short.
+     *
+     * @param part The message or part to walk
+     * @return The extracted text and its truncation state
+     * @throws MessagingException If the MIME structure cannot be read
+     * @throws IOException If a part cannot be decoded
+     */
+    public PartContent extract(Part part) throws MessagingException, IOException {
+        Walk walk = new Walk();
+        walk.visit(part);
+        return new PartContent(walk.text.toString(), walk.truncated, maxBytes - walk.remaining, -1);
+    }
+
+    /**
+     * State of a single traversal: the collected text and the remaining budget.
+     */
+    private final class Walk {
+        private final StringBuilder text = new StringBuilder();
+        private int remaining = maxBytes;
+        private boolean truncated;
+
+        private void visit(Part part) throws MessagingException, IOException {
+            if (isAttachment(part)) {
+                return;
+            }
+
+            if (part.isMimeType("text/plain") || part.isMimeType("text/html")) {
+                if (remaining <= 0) {
+                    truncated = true;
+                    return;
+                }
+                appendText(part);
+            } else if (part.isMimeType("multipart/alternative")) {
+                Part chosen = chooseAlternative((Multipart) part.getContent());
+                if (chosen != null) {
+                    visit(chosen);
+                }
+            } else if (part.isMimeType("multipart/*")) {
+                Multipart multipart = (Multipart) part.getContent();
+                for (int i = 0; i < multipart.getCount(); i++) {
+                    visit(multipart.getBodyPart(i));
+                }
+            } else if (part.isMimeType("message/rfc822")) {
+                Object content = part.getContent();
+                if (content instanceof Part) {
+                    visit((Part) content);
+                }
+            }
+        }
+
+        /**
+         * Decodes a text part into the buffer, honouring the remaining budget.
+         */
+        private void appendText(Part part) throws MessagingException, IOException {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            byte[] buffer = new byte[Math.min(BUFFER_SIZE, remaining)];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (InputStream input = part.getInputStream()) {
+                int read;
+                while (remaining > 0
+                        && (read = input.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+                    bytes.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                if (remaining <= 0 && input.read() != -1) {
+                    truncated = true;
+                }
+            }
+            text.append(bytes.toString(charsetOf(part)));
+        }
+
+        /**
+         * Picks the preferred body of a multipart/alternative. Later parts are
+         * richer per RFC 2046, so candidates are scanned from last to first.
+         */
+        private Part chooseAlternative(Multipart alternative) throws MessagingException, IOException {
+            String preferred = preference == TextPreference.HTML ? "text/html" : "text/plain";
+            Part fallback = null;
+            for (int i = alternative.getCount() - 1; i >= 0; i--) {
+                BodyPart candidate = alternative.getBodyPart(i);
+                if (contains(candidate, preferred)) {
+                    return candidate;
+                }
+                if (fallback == null && contains(candidate, "text/*")) {
+                    fallback = candidate;
+                }
+            }
+            return fallback;
+        }
+    }
+
+    /**
+     * Checks whether a part is, or contains, a non-attachment part of the given type.
+     * Only the MIME structure is inspected; no body content is decoded.
+     */
+    private static boolean contains(Part part, String mimeType) throws MessagingException, IOException {
+        if (isAttachment(part)) {
+            return false;
+        }
+        if (part.isMimeType(mimeType)) {
+            return true;
+        }
+        if (part.isMimeType("multipart/*")) {
+            Multipart multipart = (Multipart) part.getContent();
+            for (int i = 0; i < multipart.getCount(); i++) {
+                if (contains(multipart.getBodyPart(i), mimeType)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a part is an attachment rather than displayable body text.
+     */
+    static boolean isAttachment(Part part) throws MessagingException {
+        return Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())
+                || (part.getFileName() != null && !part.isMimeType("text/*") && !part.isMimeType("multipart/*"));
+    }
+
+    /**
+     * Returns the Java charset declared in a part's Content-Type, or US-ASCII.
+     */
+    static Charset charsetOf(Part part) throws MessagingException {
+        String charset = null;
+        try {
+            charset = new ContentType(part.getContentType()).getParameter("charset");
+        } catch (ParseException e) {
+            // Fall through to the default charset
+        }
+        if (charset == null) {
+            return StandardCharsets.US_ASCII;
+        }
+        try {
+            return Charset.forName(MimeUtility.javaCharset(charset));
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package org.example;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.InternetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.InitialDirContext;
+
+/**
+ * Sends many messages with separate limits per recipient domain.
+ * <p>
+ * Recipients are grouped by domain, or optionally by the mail provider
+ * behind the domain's MX records, so that e.g. every Google Workspace domain
+ * shares Gmail's limits. Each group has its own token bucket (messages per
+ * minute) and its own cap on concurrent connections. A 421, 450 or 451 reply
+ * backs off only the group that sent it, with exponential delays; the other
+ * groups keep sending at full speed.
+ * <p>
+ * All groups send through the same relay account, so their connections come
+ * from one key of the {@link SmtpTransportPool}, and the pool's per-key limit
+ * caps the total across groups. With the default pool that is
+ * {@link SmtpTransportPool#DEFAULT_MAX_CONNECTIONS_PER_KEY}; pass a pool sized
+ * to the sum of the groups' connection limits to let every group reach its own.
+ * Workers return their connection whenever their group runs out of work
+ * or has to wait, so waiting groups do not hold connections others could use.
+ */
+public class OutboundScheduler {
+
+    /** Default sending rate per domain group. */
+    public static final int DEFAULT_MESSAGES_PER_MINUTE = 60;
+
+    /** Default number of concurrent connections per domain group. */
+    public static final int DEFAULT_CONNECTIONS_PER_DOMAIN = 2;
+
+    /** Default number of temporary failures after which a message is given up. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    /** A worker waiting longer than this returns its connection to the pool first. */
+    private static final long LEASE_HOLD_MILLIS = 1000;
+
+    /** How long an idle worker waits for work before checking whether its group is done. */
+    private static final long POLL_MILLIS = 200;
+
+    private final String host;
+    private final String port;
+    private final String username;
+    private final String password;
+    private final SmtpTransportPool pool;
+    private final boolean groupByMx;
+    private final int maxAttempts;
+    private final Map<String, DomainPolicy> policies = new ConcurrentHashMap<>();
+    private final Map<String, Domain> domains = new ConcurrentHashMap<>();
+    private final Map<String, String> mxGroups = new ConcurrentHashMap<>();
+    private volatile DomainPolicy defaultPolicy = new DomainPolicy(DEFAULT_MESSAGES_PER_MINUTE,
+            DEFAULT_CONNECTIONS_PER_DOMAIN);
+
+    /**
+     * Creates a scheduler that groups recipients by their domain.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     */
+    public OutboundScheduler(String host, String port, String username, String password) {
+        this(host, port, username, password, false, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param groupByMx Whether to group domains by the provider of their primary MX host
+     * @param maxAttempts Temporary failures after which a message is given up
+     */
+    public OutboundScheduler(String host, String port, String username, String password,
+                             boolean groupByMx, int maxAttempts) {
+        this(host, port, username, password, groupByMx, maxAttempts, SmtpTransportPool.getDefault());
+    }
+
+    /**
+     * Creates a scheduler that sends through the given pool.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param groupByMx Whether to group domains by the provider of their primary MX host
+     * @param maxAttempts Temporary failures after which a message is given up
+     * @param pool Pool whose per-key limit caps the connections of all groups together
+     */
+    public OutboundScheduler(String host, String port, String username, String password,
+                             boolean groupByMx, int maxAttempts, SmtpTransportPool pool) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.pool = pool;
+        this.groupByMx = groupByMx;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the limits of one domain group, such as "gmail.com", or "google.com"
+     * when grouping by MX.
+     *
+     * @param group The domain group
+     * @param policy The limits to apply
+     */
+    public void setPolicy(String group, DomainPolicy policy) {
+        policies.put(group.toLowerCase(Locale.ROOT), policy);
+        domains.remove(group.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Sets the limits of every group without a policy of its own.
+     *
+     * @param policy The limits to apply
+     */
+    public void setDefaultPolicy(DomainPolicy policy) {
+        this.defaultPolicy = policy;
+        domains.keySet().removeIf(group -> !policies.containsKey(group));
+    }
+
+    /**
+     * Sends messages to their recipients, split by domain group, and waits
+     * until every message has been sent, refused or given up.
+     *
+     * @param messages The messages to send
+     * @return One result per message, in the same order, covering all its recipients
+     * @throws MessagingException If the messages cannot be read or sending is interrupted
+     */
+    public List<SendResult> sendAll(List<? extends Message> messages) throws MessagingException {
+        List<Outcome> outcomes = new ArrayList<>(messages.size());
+        Map<String, List<Item>> byGroup = new LinkedHashMap<>();
+        for (Message message : messages) {
+            Outcome outcome = new Outcome(message);
+            outcomes.add(outcome);
+            Address[] recipients = message.getAllRecipients();
+            if (recipients == null) {
+                continue;
+            }
+            Map<String, List<Address>> split = new LinkedHashMap<>();
+            for (Address recipient : recipients) {
+                String domain = DomainBackoff.domainOf(((InternetAddress) recipient).getAddress());
+                split.computeIfAbsent(groupOf(domain), group -> new ArrayList<>()).add(recipient);
+            }
+            for (Map.Entry<String, List<Address>> entry : split.entrySet()) {
+                byGroup.computeIfAbsent(entry.getKey(), group -> new ArrayList<>())
+                        .add(new Item(outcome, entry.getValue().toArray(new Address[0])));
+            }
+        }
+
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("outbound-scheduler");
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Map.Entry<String, List<Item>> entry : byGroup.entrySet()) {
+                Domain domain = domainFor(entry.getKey());
+                Run run = new Run(domain, entry.getValue());
+                int workers = Math.min(domain.policy.getMaxConnections(), entry.getValue().size());
+                for (int i = 0; i < workers; i++) {
+                    futures.add(executor.submit(() -> {
+                        work(run);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while sending email", e);
+        } catch (ExecutionException e) {
+            throw new MessagingException("Error sending email: " + e.getCause().getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<SendResult> results = new ArrayList<>(outcomes.size());
+        for (Outcome outcome : outcomes) {
+            results.add(outcome.toResult());
+        }
+        return results;
+    }
+
+    /**
+     * Sends the items of one group over a connection of its own, respecting
+     * the group's rate and backoff.
+     */
+    private void work(Run run) throws InterruptedException {
+        Domain domain = run.domain;
+        SmtpTransportPool.Lease lease = null;
+        try {
+            while (run.remaining.get() > 0) {
+                Item item = run.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    // Items may be with other workers; don't hold a connection while waiting
+                    if (lease != null) {
+                        lease.close();
+                        lease = null;
+                    }
+                    continue;
+                }
+
+                // Wait out the group's backoff, then its rate limit
+                long wait = domain.backoff.getBlockedUntil() - System.currentTimeMillis();
+                if (wait <= 0) {
+                    wait = domain.bucket.tryAcquire();
+                }
+                if (wait > 0) {
+                    run.queue.addFirst(item);
+                    if (wait > LEASE_HOLD_MILLIS && lease != null) {
+                        lease.close();
+                        lease = null;
+                    }
+                    Thread.sleep(Math.min(wait, LEASE_HOLD_MILLIS));
+                    continue;
+                }
+
+                try {
+                    if (lease == null) {
+                        lease = pool.borrow(host, port, username, password);
+                    }
+                    lease.send(item.outcome.message, item.recipients);
+                    item.outcome.record(item.recipients, SendResult.Status.SENT);
+                    domain.backoff.onSuccess();
+                    run.remaining.decrementAndGet();
+                } catch (MessagingException e) {
+                    if (returnCode(e) == 421 && lease != null) {
+                        // The server closes the connection after a 421
+                        lease.invalidate();
+                        lease.close();
+                        lease = null;
+                    }
+                    handleFailure(run, item, e);
+                } catch (RuntimeException e) {
+                    // The connection's state is unknown; fail only this item
+                    System.out.println("Error sending email to " + Arrays.toString(item.recipients)
+                            + ": " + e.getMessage());
+                    if (lease != null) {
+                        lease.invalidate();
+                        lease.close();
+                        lease = null;
+                    }
+                    item.outcome.fail(new MessagingException("Error sending email: " + e.getMessage(), e));
+                    run.remaining.decrementAndGet();
+                }
+            }
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    private void handleFailure(Run run, Item item, MessagingException e) {
+        Address[] unsent = item.recipients;
+        if (e instanceof SendFailedException) {
+            SendFailedException failure = (SendFailedException) e;
+            if (failure.getValidSentAddresses() != null) {
+                item.outcome.record(failure.getValidSentAddresses(), SendResult.Status.SENT);
+            }
+            Address[] invalid = failure.getInvalidAddresses();
+            if (invalid != null && invalid.length > 0) {
+                item.outcome.record(invalid, SendResult.Status.REJECTED);
+                item.outcome.fail(e);
+                unsent = failure.getValidUnsentAddresses();
+                if (unsent == null || unsent.length == 0) {
+                    run.remaining.decrementAndGet();
+                } else {
+                    // Retry the remaining recipients right away
+                    item.recipients = unsent;
+                    run.queue.addFirst(item);
+                }
+                return;
+            }
+            if (failure.getValidUnsentAddresses() != null) {
+                unsent = failure.getValidUnsentAddresses();
+            }
+        }
+
+        int code = returnCode(e);
+        boolean temporary = code == 421 || code == 450 || code == 451 || !(e instanceof SendFailedException);
+        item.attempts++;
+        if (!temporary || item.attempts >= maxAttempts) {
+            System.out.println("Error sending email to " + Arrays.toString(unsent) + ": " + e.getMessage());
+            item.outcome.fail(e);
+            run.remaining.decrementAndGet();
+            return;
+        }
+
+        long until = run.domain.backoff.onFailure();
+        System.out.println("Domain " + run.domain.name + " deferred (" + code + "), backing off for "
+                + (until - System.currentTimeMillis()) + " ms: " + e.getMessage());
+        item.recipients = unsent;
+        run.queue.addLast(item);
+    }
+
+    /**
+     * Returns the SMTP reply code of a failure, looking at rejected recipients too.
+     */
+    private static int returnCode(MessagingException e) {
+        if (e instanceof SMTPSendFailedException) {
+            return ((SMTPSendFailedException) e).getReturnCode();
+        }
+        for (Exception next = e.getNextException(); next != null;
+             next = next instanceof MessagingException ? ((MessagingException) next).getNextException() : null) {
+            if (next instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) next).getReturnCode();
+            }
+            if (next instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) next).getReturnCode();
+            }
+        }
+        return -1;
+    }
+
+    private Domain domainFor(String group) {
+        return domains.computeIfAbsent(group,
+                name -> new Domain(name, policies.getOrDefault(name, defaultPolicy)));
+    }
+
+    /**
+     * Returns the group a domain's limits are tracked under.
+     */
+    private String groupOf(String domain) {
+        if (!groupByMx || domain.isEmpty()) {
+            return domain;
+        }
+        return mxGroups.computeIfAbsent(domain, OutboundScheduler::lookupMxGroup);
+    }
+
+    /**
+     * Looks up the primary MX host of a domain and reduces it to its last two
+     * labels, e.g. "aspmx.l.google.com" to "google.com". Falls back to the
+     * domain itself if the lookup fails.
+     */
+    private static String lookupMxGroup(String domain) {
+        Hashtable<String, String> environment = new Hashtable<>();
+        environment.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
+        try {
+            InitialDirContext context = new InitialDirContext(environment);
+            try {
+                Attribute records = context.getAttributes("dns:/" + domain, new String[] {"MX"}).get("MX");
+                if (records == null) {
+                    return domain;
+                }
+                int bestPreference = Integer.MAX_VALUE;
+                String bestHost = null;
+                for (int i = 0; i < records.size(); i++) {
+                    String[] fields = records.get(i).toString().trim().split("\\s+");
+                    int preference = Integer.parseInt(fields[0]);
+                    if (fields.length > 1 && preference < bestPreference) {
+                        bestPreference = preference;
+                        bestHost = fields[1];
+                    }
+                }
+                if (bestHost == null) {
+                    return domain;
+                }
+                String[] labels = bestHost.toLowerCase(Locale.ROOT).replaceAll("\\.$", "").split("\\.");
+                return labels.length < 2 ? domain : labels[labels.length - 2] + "." + labels[labels.length - 1];
+            } finally {
+                context.close();
+            }
+        } catch (NamingException | NumberFormatException e) {
+            System.out.println("Error looking up MX records for " + domain + ": " + e.getMessage());
+            return domain;
+        }
+    }
+
+    /**
+     * Sending limits for one domain group.
+     */
+    public static final class DomainPolicy {
+        private final int messagesPerMinute;
+        private final int maxConnections;
+
+        /**
+         * @param messagesPerMinute Sustained sending rate; bursts of up to this many are allowed
+         * @param maxConnections Maximum concurrent connections, within the pool's overall limit
+         */
+        public DomainPolicy(int messagesPerMinute, int maxConnections) {
+            this.messagesPerMinute = messagesPerMinute;
+            this.maxConnections = maxConnections;
+        }
+
+        public int getMessagesPerMinute() {
+            return messagesPerMinute;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+    }
+
+    /**
+     * Rate limit and backoff of one domain group, kept across calls.
+     */
+    private static final class Domain {
+        private final String name;
+        private final DomainPolicy policy;
+        private final TokenBucket bucket;
+        private final DomainBackoff backoff = new DomainBackoff();
+
+        private Domain(String name, DomainPolicy policy) {
+            this.name = name;
+            this.policy = policy;
+            this.bucket = new TokenBucket(policy.getMessagesPerMinute());
+        }
+    }
+
+    /**
+     * The items of one group in one {@link #sendAll} call.
+     */
+    private static final class Run {
+        private final Domain domain;
+        private final BlockingDeque<Item> queue;
+        private final AtomicInteger remaining;
+
+        private Run(Domain domain, List<Item> items) {
+            this.domain = domain;
+            this.queue = new LinkedBlockingDeque<>(items);
+            this.remaining = new AtomicInteger(items.size());
+        }
+    }
+
+    /**
+     * A message and the recipients of one group it still has to reach.
+     */
+    private static final class Item {
+        private final Outcome outcome;
+        private volatile Address[] recipients;
+        private int attempts;
+
+        private Item(Outcome outcome, Address[] recipients) {
+            this.outcome = outcome;
+            this.recipients = recipients;
+        }
+    }
+
+    /**
+     * Collects the per-recipient statuses of one message across groups.
+     */
+    private static final class Outcome {
+        private final Message message;
+        private final Map<Address, SendResult.Status> statuses = new LinkedHashMap<>();
+        private MessagingException error;
+
+        private Outcome(Message message) throws MessagingException {
+            this.message = message;
+            Address[] recipients = message.getAllRecipients();
+            if (recipients != null) {
+                for (Address recipient : recipients) {
+                    statuses.put(recipient, SendResult.Status.UNSENT);
+                }
+            }
+        }
+
+        private synchronized void record(Address[] addresses, SendResult.Status status) {
+            for (Address address : addresses) {
+                statuses.put(address, status);
+            }
+        }
+
+        private synchronized void fail(MessagingException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+
+        private synchronized SendResult toResult() {
+            return new SendResult(SendResult.messageIdOf(message), new LinkedHashMap<>(statuses), error);
+        }
+    }
+
+    /**
+     * Allows a number of messages per minute, refilling continuously.
+     */
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double tokensPerMilli;
+        private double tokens;
+        private long refilledAt = System.currentTimeMillis();
+
+        private TokenBucket(int perMinute) {
+            this.capacity = Math.max(1, perMinute);
+            this.tokensPerMilli = perMinute / 60_000.0;
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes a token if one is available.
+         *
+         * @return 0 if a token was taken, otherwise milliseconds until one is available
+         */
+        private synchronized long tryAcquire() {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerMilli);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerMilli);
+        }
+    }
+}
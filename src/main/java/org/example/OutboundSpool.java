@@ -0,0 +1,615 @@
+package org.example;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A durable outbound queue with retries.
+ * <p>
+ * Messages are appended to segmented, append-only log files before
+ * {@link #enqueue(Message)} returns; concurrent callers share one fsync (group
+ * commit). Background workers send them through {@link SmtpTransportPool} and
+ * append a completion record once the server has accepted or permanently
+ * refused them. After a restart the logs are replayed, so every message not
+ * known to be complete is sent again: delivery is at-least-once.
+ * <p>
+ * Recipients are grouped by domain and each group is spooled separately.
+ * Temporary failures back off exponentially, with jitter, per domain only; the
+ * first success against a recovering domain releases its waiting messages at
+ * once.
+ * <p>
+ * Record layout: {@code int length, int crc32, byte type, long id, payload}.
+ * The CRC covers type, id and payload; a torn or corrupt record ends the
+ * replay of its segment.
+ */
+public class OutboundSpool implements AutoCloseable {
+
+    /** Default size at which a new segment file is started (16 MB). */
+    public static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+
+    /** Default number of concurrent delivery workers. */
+    public static final int DEFAULT_CONCURRENCY = SmtpTransportPool.DEFAULT_MAX_CONNECTIONS_PER_KEY;
+
+    /** Default number of temporary failures after which a message is dropped. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 30;
+
+    /** How long an idle worker waits for work before checking for shutdown. */
+    private static final long POLL_MILLIS = 200;
+
+    private static final byte RECORD_MESSAGE = 1;
+    private static final byte RECORD_DONE = 2;
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + 1 + Long.BYTES;
+
+    private final Path directory;
+    private final String host;
+    private final String port;
+    private final String username;
+    private final String password;
+    private final long segmentBytes;
+    private final int maxAttempts;
+
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private volatile Segment active;
+    private long nextId;
+    private volatile long appendedBytes;
+    private long syncedBytes;
+
+    private final Map<Long, PendingMessage> pending = new ConcurrentHashMap<>();
+    private final DelayQueue<PendingMessage> ready = new DelayQueue<>();
+    private final Map<String, DomainBackoff> backoffs = new ConcurrentHashMap<>();
+    private final ExecutorService workers = VirtualThreads.newThreadPerTaskExecutor("spool-delivery");
+    private final CountDownLatch workersDone;
+    private volatile boolean closed;
+
+    /**
+     * Opens a spool with the default settings, replays it and starts delivering.
+     *
+     * @param directory Directory holding the spool files
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @throws IOException If the spool cannot be opened
+     */
+    public OutboundSpool(Path directory, String host, String port, String username, String password)
+            throws IOException {
+        this(directory, host, port, username, password, DEFAULT_SEGMENT_BYTES, DEFAULT_CONCURRENCY,
+                DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Opens a spool, replays it and starts delivering.
+     *
+     * @param directory Directory holding the spool files
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password
+     * @param segmentBytes Size at which a new segment file is started
+     * @param concurrency Number of delivery workers
+     * @param maxAttempts Temporary failures after which a message is dropped
+     * @throws IOException If the spool cannot be opened
+     */
+    public OutboundSpool(Path directory, String host, String port, String username, String password,
+                         long segmentBytes, int concurrency, int maxAttempts) throws IOException {
+        this.directory = directory;
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.segmentBytes = segmentBytes;
+        this.maxAttempts = maxAttempts;
+        Files.createDirectories(directory);
+        recover();
+
+        this.workersDone = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Spools a message for delivery to all its recipients. When this method
+     * returns, the message is on disk and survives a crash.
+     *
+     * @param message The message to send
+     * @throws MessagingException If the message cannot be read or has no recipients
+     * @throws IOException If the spool cannot be written
+     */
+    public void enqueue(Message message) throws MessagingException, IOException {
+        if (closed) {
+            throw new IllegalStateException("Spool is closed");
+        }
+        Address[] recipients = message.getAllRecipients();
+        if (recipients == null || recipients.length == 0) {
+            throw new MessagingException("Message has no recipients");
+        }
+
+        // Capture the message once, then spool it per recipient domain
+        ByteBuffer buffer = RawMimeMessage.copyOf(message).getRawBuffer();
+        byte[] raw = new byte[buffer.remaining()];
+        buffer.get(raw);
+        Map<String, List<String>> byDomain = new LinkedHashMap<>();
+        for (Address recipient : recipients) {
+            if (!(recipient instanceof InternetAddress)) {
+                throw new MessagingException("Unsupported recipient address type: " + recipient.getType());
+            }
+            String address = ((InternetAddress) recipient).getAddress();
+            byDomain.computeIfAbsent(DomainBackoff.domainOf(address), domain -> new ArrayList<>()).add(address);
+        }
+
+        List<PendingMessage> added = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : byDomain.entrySet()) {
+            added.add(appendMessage(entry.getKey(), entry.getValue(), raw));
+        }
+        sync(appendedBytes);
+
+        // Only durable messages are handed to the workers
+        for (PendingMessage entry : added) {
+            pending.put(entry.id, entry);
+            ready.add(entry);
+        }
+    }
+
+    /**
+     * @return Number of spooled messages not yet delivered, per recipient domain
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the delivery workers and flushes the spool. Undelivered messages
+     * stay on disk and are delivered when the spool is opened again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            workersDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                try {
+                    segment.channel.force(false);
+                    segment.channel.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing spool segment " + segment.file + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes due messages and delivers them until the spool is closed.
+     */
+    private void work() {
+        try {
+            while (!closed) {
+                PendingMessage entry = ready.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (entry == null) {
+                    continue;
+                }
+                DomainBackoff backoff = backoffs.computeIfAbsent(entry.domain, domain -> new DomainBackoff());
+                long blockedUntil = backoff.getBlockedUntil();
+                if (blockedUntil > System.currentTimeMillis()) {
+                    // Another message of this domain failed meanwhile; wait with it
+                    entry.nextAttemptAt = blockedUntil;
+                    ready.add(entry);
+                    continue;
+                }
+                deliver(entry, backoff);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workersDone.countDown();
+        }
+    }
+
+    /**
+     * Sends one spooled message and records the outcome.
+     */
+    private void deliver(PendingMessage entry, DomainBackoff backoff) {
+        try {
+            Message message = new RawMimeMessage(null, ByteBuffer.wrap(readRaw(entry)));
+            try (SmtpTransportPool.Lease lease = SmtpTransportPool.getDefault()
+                    .borrow(host, port, username, password)) {
+                try {
+                    lease.send(message, toAddresses(entry.recipients));
+                } catch (RuntimeException e) {
+                    // The connection may be stuck mid-transaction
+                    lease.invalidate();
+                    throw e;
+                }
+            }
+            markDone(entry);
+            if (backoff.onSuccess()) {
+                releaseDomain(entry.domain);
+            }
+        } catch (SendFailedException e) {
+            Address[] invalid = e.getInvalidAddresses();
+            Address[] unsent = e.getValidUnsentAddresses();
+            if (invalid != null && invalid.length > 0) {
+                System.out.println("Dropping rejected recipients " + Arrays.toString(invalid) + ": " + e.getMessage());
+                if (unsent == null || unsent.length == 0) {
+                    markDone(entry);
+                } else {
+                    // Retry the remaining recipients right away
+                    entry.recipients = toStrings(unsent);
+                    entry.nextAttemptAt = System.currentTimeMillis();
+                    ready.add(entry);
+                }
+            } else if (e instanceof SMTPSendFailedException && ((SMTPSendFailedException) e).getReturnCode() >= 500) {
+                System.out.println("Message " + entry.id + " permanently refused: " + e.getMessage());
+                markDone(entry);
+            } else {
+                retryLater(entry, backoff, e);
+            }
+        } catch (MessagingException | IOException | RuntimeException e) {
+            // Any failure keeps the message spooled and the worker alive
+            retryLater(entry, backoff, e);
+        }
+    }
+
+    private void retryLater(PendingMessage entry, DomainBackoff backoff, Exception error) {
+        entry.attempts++;
+        if (entry.attempts >= maxAttempts) {
+            System.out.println("Giving up on message " + entry.id + " to " + entry.domain
+                    + " after " + entry.attempts + " attempts: " + error.getMessage());
+            markDone(entry);
+            return;
+        }
+        entry.nextAttemptAt = backoff.onFailure();
+        System.out.println("Delivery to " + entry.domain + " failed, retrying in "
+                + (entry.nextAttemptAt - System.currentTimeMillis()) + " ms: " + error.getMessage());
+        ready.add(entry);
+    }
+
+    /**
+     * Makes the waiting messages of a recovered domain due immediately.
+     */
+    private void releaseDomain(String domain) {
+        long now = System.currentTimeMillis();
+        for (PendingMessage entry : ready) {
+            if (entry.domain.equals(domain) && entry.nextAttemptAt > now && ready.remove(entry)) {
+                entry.nextAttemptAt = now;
+                ready.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Appends a completion record and deletes segments that no longer hold
+     * undelivered messages. Segments are deleted oldest first, so completion
+     * records are never lost while the message they complete is still on disk.
+     */
+    private void markDone(PendingMessage entry) {
+        pending.remove(entry.id);
+        try {
+            append(RECORD_DONE, entry.id, new byte[0]);
+        } catch (IOException e) {
+            System.out.println("Error recording delivery of message " + entry.id + ": " + e.getMessage());
+        }
+        synchronized (writeLock) {
+            entry.segment.live--;
+            deleteCompletedSegments();
+        }
+    }
+
+    private void deleteCompletedSegments() {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active || oldest.live > 0) {
+                return;
+            }
+            segments.remove(oldest.number);
+            try {
+                oldest.channel.close();
+                Files.deleteIfExists(oldest.file);
+            } catch (IOException e) {
+                System.out.println("Error deleting spool segment " + oldest.file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private PendingMessage appendMessage(String domain, List<String> recipients, byte[] raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length + 256);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeUTF(domain);
+        payload.writeInt(recipients.size());
+        for (String recipient : recipients) {
+            payload.writeUTF(recipient);
+        }
+        payload.writeInt(raw.length);
+        payload.write(raw);
+        payload.flush();
+
+        synchronized (writeLock) {
+            long id = nextId++;
+            long offset = append(RECORD_MESSAGE, id, bytes.toByteArray());
+            Segment segment = active;
+            segment.live++;
+            return new PendingMessage(id, segment, offset, domain, recipients);
+        }
+    }
+
+    /**
+     * Writes a record to the active segment, rolling to a new segment when it is full.
+     *
+     * @return Offset of the record in the segment
+     */
+    private long append(byte type, long id, byte[] payload) throws IOException {
+        int length = HEADER_BYTES + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length);
+        record.putInt(0);
+        record.put(type);
+        record.putLong(id);
+        record.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 2 * Integer.BYTES, length - 2 * Integer.BYTES);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        record.flip();
+
+        synchronized (writeLock) {
+            if (active.size > 0 && active.size + length > segmentBytes) {
+                roll();
+            }
+            Segment segment = active;
+            long offset = segment.size;
+            while (record.hasRemaining()) {
+                segment.channel.write(record, offset + record.position());
+            }
+            segment.size += length;
+            appendedBytes += length;
+            return offset;
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk. Callers waiting at the same
+     * time share a single force.
+     */
+    private void sync(long upTo) throws IOException {
+        synchronized (syncLock) {
+            if (syncedBytes >= upTo) {
+                return;
+            }
+            long target = appendedBytes;
+            active.channel.force(false);
+            syncedBytes = target;
+        }
+    }
+
+    /**
+     * Starts a new segment; the full one is forced first so it needs no further syncs.
+     */
+    private void roll() throws IOException {
+        active.channel.force(false);
+        active = openSegment(active.number + 1);
+    }
+
+    private Segment openSegment(long number) throws IOException {
+        Path file = directory.resolve(String.format("spool-%08d.log", number));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(number, file, channel);
+        segment.size = channel.size();
+        segments.put(number, segment);
+        return segment;
+    }
+
+    /**
+     * Replays the segment files, rebuilding the set of undelivered messages.
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.filter(path -> path.getFileName().toString().matches("spool-\\d+\\.log"))
+                    .sorted()
+                    .forEach(files::add);
+        }
+
+        synchronized (writeLock) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Segment segment = openSegment(Long.parseLong(name.substring("spool-".length(), name.length() - ".log".length())));
+                segment.size = replay(segment);
+                // Drop a torn tail so new records follow the last good one
+                segment.channel.truncate(segment.size);
+                active = segment;
+            }
+            if (active == null) {
+                active = openSegment(0);
+            }
+            deleteCompletedSegments();
+        }
+
+        if (!pending.isEmpty()) {
+            System.out.println("Recovered " + pending.size() + " undelivered messages from " + directory);
+        }
+        ready.addAll(pending.values());
+    }
+
+    /**
+     * Reads the records of one segment.
+     *
+     * @return Length of the valid prefix of the segment
+     */
+    private long replay(Segment segment) throws IOException {
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (true) {
+            header.clear();
+            if (readFully(segment.channel, header, position) < HEADER_BYTES) {
+                return position;
+            }
+            int length = header.getInt(0);
+            if (length < HEADER_BYTES || position + length > segment.channel.size()) {
+                return position;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(segment.channel, record, position);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 2 * Integer.BYTES, length - 2 * Integer.BYTES);
+            if ((int) crc.getValue() != record.getInt(Integer.BYTES)) {
+                System.out.println("Corrupt record in " + segment.file + " at " + position + ", ignoring the rest");
+                return position;
+            }
+
+            byte type = record.get(2 * Integer.BYTES);
+            long id = record.getLong(2 * Integer.BYTES + 1);
+            nextId = Math.max(nextId, id + 1);
+            if (type == RECORD_MESSAGE) {
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(
+                        record.array(), HEADER_BYTES, length - HEADER_BYTES));
+                String domain = payload.readUTF();
+                int count = payload.readInt();
+                List<String> recipients = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    recipients.add(payload.readUTF());
+                }
+                segment.live++;
+                pending.put(id, new PendingMessage(id, segment, position, domain, recipients));
+            } else if (type == RECORD_DONE) {
+                PendingMessage done = pending.remove(id);
+                if (done != null) {
+                    done.segment.live--;
+                }
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Reads the raw message bytes of a spooled message.
+     */
+    private byte[] readRaw(PendingMessage entry) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        readFully(entry.segment.channel, header, entry.offset);
+        ByteBuffer record = ByteBuffer.allocate(header.getInt(0));
+        readFully(entry.segment.channel, record, entry.offset);
+
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(
+                record.array(), HEADER_BYTES, record.capacity() - HEADER_BYTES));
+        payload.readUTF();
+        int count = payload.readInt();
+        for (int i = 0; i < count; i++) {
+            payload.readUTF();
+        }
+        byte[] raw = new byte[payload.readInt()];
+        payload.readFully(raw);
+        return raw;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    private static Address[] toAddresses(List<String> recipients) throws AddressException {
+        Address[] addresses = new Address[recipients.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = new InternetAddress(recipients.get(i));
+        }
+        return addresses;
+    }
+
+    private static List<String> toStrings(Address[] addresses) {
+        List<String> strings = new ArrayList<>(addresses.length);
+        for (Address address : addresses) {
+            strings.add(((InternetAddress) address).getAddress());
+        }
+        return strings;
+    }
+
+    /**
+     * One spool file.
+     */
+    private static final class Segment {
+        private final long number;
+        private final Path file;
+        private final FileChannel channel;
+        private long size;
+        private int live;
+
+        private Segment(long number, Path file, FileChannel channel) {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * A spooled message awaiting delivery to one domain.
+     */
+    private static final class PendingMessage implements Delayed {
+        private final long id;
+        private final Segment segment;
+        private final long offset;
+        private final String domain;
+        private volatile List<String> recipients;
+        private volatile long nextAttemptAt = System.currentTimeMillis();
+        private int attempts;
+
+        private PendingMessage(long id, Segment segment, long offset, String domain, List<String> recipients) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.domain = domain;
+            this.recipients = recipients;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextAttemptAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(nextAttemptAt, ((PendingMessage) other).nextAttemptAt);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.example;
+
+/**
+ * Decoded text of a message body, together with whether it was cut short by a
+ * byte budget. Downstream extractors can use {@link #isTruncated()} to tell a
+ * complete body from the first part of a larger one.
+ */
+public class PartContent {
+
+    private final String text;
+    private final boolean truncated;
+    private final long fetchedBytes;
+    private final long totalBytes;
+
+    public PartContent(String text, boolean truncated, long fetchedBytes, long totalBytes) {
+        this.text = text;
+        this.truncated = truncated;
+        this.fetchedBytes = fetchedBytes;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * @return The decoded text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return True if the content was cut at the byte budget
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return Number of bytes read, before decoding
+     */
+    public long getFetchedBytes() {
+        return fetchedBytes;
+    }
+
+    /**
+     * @return Size of the complete content in bytes, or -1 if unknown
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,250 @@
+package org.example;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.*;
+import jakarta.mail.internet.MimeMessage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Enumeration;
+import java.util.Properties;
+
+/**
+ * A detached message that keeps its raw RFC 822 bytes in a single read-only
+ * {@link ByteBuffer} and parses them only when first needed.
+ * <p>
+ * Unlike {@code new MimeMessage(source)}, which writes the source to a buffer
+ * and immediately re-parses it, the bytes are captured once and headers and
+ * body are parsed on the first header or content access. Body parts are sliced
+ * out of the buffer rather than copied. Writing an unchanged message copies
+ * the raw bytes straight through without parsing, and saving it keeps its
+ * Message-ID, so resending it sends identical bytes.
+ * <p>
+ * A message counts as changed once a header, the content or the data handler
+ * is set. Reading the content does not change it; after editing a multipart
+ * returned by {@link #getContent()} in place, pass it to
+ * {@link #setContent(Multipart)} so the edit is written out.
+ */
+public class RawMimeMessage extends MimeMessage {
+
+    private static final Session DEFAULT_SESSION = Session.getInstance(new Properties());
+
+    private final ByteBuffer raw;
+    private boolean parsed;
+    private boolean changed;
+
+    /**
+     * Creates a message over raw RFC 822 bytes. The buffer is not copied; its
+     * remaining bytes must not change while the message is in use.
+     *
+     * @param session Session for the message, or null for a default session
+     * @param raw The raw message bytes
+     */
+    public RawMimeMessage(Session session, ByteBuffer raw) {
+        super(session != null ? session : DEFAULT_SESSION);
+        this.raw = raw.asReadOnlyBuffer().slice();
+        // Nothing to parse yet and nothing changed
+        this.headers = null;
+        this.modified = false;
+        this.saved = true;
+    }
+
+    /**
+     * Detaches a message from its folder by capturing its raw bytes once.
+     * The copy keeps the source's flags.
+     *
+     * @param source The message to copy
+     * @return The detached message
+     * @throws MessagingException If the source cannot be read
+     */
+    public static RawMimeMessage copyOf(Message source) throws MessagingException {
+        if (source instanceof RawMimeMessage && ((RawMimeMessage) source).isUnchanged()) {
+            RawMimeMessage copy = new RawMimeMessage(source.getSession(), ((RawMimeMessage) source).raw);
+            copy.flags = source.getFlags();
+            return copy;
+        }
+
+        CaptureOutputStream capture = new CaptureOutputStream(Math.max(source.getSize(), 1024));
+        try {
+            source.writeTo(capture);
+        } catch (IOException e) {
+            throw new MessagingException("Error copying message: " + e.getMessage(), e);
+        }
+        RawMimeMessage copy = new RawMimeMessage(source.getSession(), capture.toByteBuffer());
+        copy.flags = source.getFlags();
+        return copy;
+    }
+
+    /**
+     * Returns the raw bytes this message was created from. Changes made to the
+     * message since are not reflected.
+     *
+     * @return A read-only view of the raw message
+     */
+    public ByteBuffer getRawBuffer() {
+        return raw.duplicate();
+    }
+
+    /**
+     * Returns whether the message still matches its raw bytes, that is, no
+     * header, content or data handler was set.
+     */
+    private synchronized boolean isUnchanged() {
+        return !changed;
+    }
+
+    /**
+     * Parses the raw bytes before a header or content change and remembers that
+     * the raw bytes are now out of date.
+     */
+    private synchronized void ensureParsedForUpdate() throws MessagingException {
+        ensureParsed();
+        changed = true;
+    }
+
+    /**
+     * Parses the raw bytes into headers and a content stream, once.
+     */
+    private synchronized void ensureParsed() throws MessagingException {
+        if (!parsed) {
+            parsed = true;
+            parse(new ByteBufferInputStream(raw));
+        }
+    }
+
+    @Override
+    public String[] getHeader(String name) throws MessagingException {
+        ensureParsed();
+        return super.getHeader(name);
+    }
+
+    @Override
+    public String getHeader(String name, String delimiter) throws MessagingException {
+        ensureParsed();
+        return super.getHeader(name, delimiter);
+    }
+
+    @Override
+    public void setHeader(String name, String value) throws MessagingException {
+        ensureParsedForUpdate();
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) throws MessagingException {
+        ensureParsedForUpdate();
+        super.addHeader(name, value);
+    }
+
+    @Override
+    public void removeHeader(String name) throws MessagingException {
+        ensureParsedForUpdate();
+        super.removeHeader(name);
+    }
+
+    @Override
+    public Enumeration<Header> getAllHeaders() throws MessagingException {
+        ensureParsed();
+        return super.getAllHeaders();
+    }
+
+    @Override
+    public Enumeration<Header> getMatchingHeaders(String[] names) throws MessagingException {
+        ensureParsed();
+        return super.getMatchingHeaders(names);
+    }
+
+    @Override
+    public Enumeration<Header> getNonMatchingHeaders(String[] names) throws MessagingException {
+        ensureParsed();
+        return super.getNonMatchingHeaders(names);
+    }
+
+    @Override
+    public void addHeaderLine(String line) throws MessagingException {
+        ensureParsedForUpdate();
+        super.addHeaderLine(line);
+    }
+
+    @Override
+    public Enumeration<String> getAllHeaderLines() throws MessagingException {
+        ensureParsed();
+        return super.getAllHeaderLines();
+    }
+
+    @Override
+    public Enumeration<String> getMatchingHeaderLines(String[] names) throws MessagingException {
+        ensureParsed();
+        return super.getMatchingHeaderLines(names);
+    }
+
+    @Override
+    public Enumeration<String> getNonMatchingHeaderLines(String[] names) throws MessagingException {
+        ensureParsed();
+        return super.getNonMatchingHeaderLines(names);
+    }
+
+    @Override
+    public int getSize() throws MessagingException {
+        ensureParsed();
+        return super.getSize();
+    }
+
+    @Override
+    protected InputStream getContentStream() throws MessagingException {
+        ensureParsed();
+        return super.getContentStream();
+    }
+
+    @Override
+    public synchronized DataHandler getDataHandler() throws MessagingException {
+        ensureParsed();
+        return super.getDataHandler();
+    }
+
+    @Override
+    public synchronized void setDataHandler(DataHandler dh) throws MessagingException {
+        ensureParsedForUpdate();
+        super.setDataHandler(dh);
+    }
+
+    /**
+     * Leaves an unchanged message as captured, so headers such as Message-ID
+     * are not regenerated when it is sent again.
+     */
+    @Override
+    public void saveChanges() throws MessagingException {
+        if (!isUnchanged()) {
+            super.saveChanges();
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+        // The unchanged message is exactly the raw bytes
+        if (ignoreList == null && isUnchanged()) {
+            Channels.newChannel(os).write(raw.duplicate());
+            os.flush();
+            return;
+        }
+        ensureParsed();
+        super.writeTo(os, ignoreList);
+    }
+
+    /**
+     * Exposes the written bytes without the copy made by toByteArray().
+     */
+    private static final class CaptureOutputStream extends ByteArrayOutputStream {
+
+        private CaptureOutputStream(int size) {
+            super(size);
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
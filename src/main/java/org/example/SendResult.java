@@ -0,0 +1,148 @@
+package org.example;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of sending one message, per recipient.
+ */
+public class SendResult {
+
+    /**
+     * What happened to one recipient.
+     */
+    public enum Status {
+        /** The server accepted the message for this recipient. */
+        SENT,
+        /** The server rejected this recipient's address. */
+        REJECTED,
+        /** The address was valid, but the message was not sent because of another failure. */
+        UNSENT
+    }
+
+    private final String messageId;
+    private final Map<Address, Status> recipients;
+    private final MessagingException error;
+
+    public SendResult(String messageId, Map<Address, Status> recipients, MessagingException error) {
+        this.messageId = messageId;
+        this.recipients = Collections.unmodifiableMap(recipients);
+        this.error = error;
+    }
+
+    /**
+     * Creates the result of a send the server accepted for every recipient.
+     *
+     * @param message The sent message
+     * @param recipients The envelope recipients
+     * @return The result
+     */
+    public static SendResult sent(Message message, Address[] recipients) {
+        Map<Address, Status> statuses = new LinkedHashMap<>();
+        for (Address recipient : recipients) {
+            statuses.put(recipient, Status.SENT);
+        }
+        return new SendResult(messageIdOf(message), statuses, null);
+    }
+
+    /**
+     * Creates the result of a failed send. If the failure is a
+     * {@link SendFailedException}, recipients are classified by the addresses
+     * it reports; otherwise every recipient is {@link Status#UNSENT}.
+     *
+     * @param message The message
+     * @param recipients The envelope recipients
+     * @param error The failure
+     * @return The result
+     */
+    public static SendResult failed(Message message, Address[] recipients, MessagingException error) {
+        Map<Address, Status> statuses = new LinkedHashMap<>();
+        if (recipients != null) {
+            for (Address recipient : recipients) {
+                statuses.put(recipient, Status.UNSENT);
+            }
+        }
+        if (error instanceof SendFailedException) {
+            SendFailedException failure = (SendFailedException) error;
+            mark(statuses, failure.getValidSentAddresses(), Status.SENT);
+            mark(statuses, failure.getInvalidAddresses(), Status.REJECTED);
+        }
+        return new SendResult(messageIdOf(message), statuses, error);
+    }
+
+    private static void mark(Map<Address, Status> statuses, Address[] addresses, Status status) {
+        if (addresses != null) {
+            for (Address address : addresses) {
+                statuses.put(address, status);
+            }
+        }
+    }
+
+    /**
+     * Returns the Message-ID of a message, or null if it has none or cannot be read.
+     */
+    static String messageIdOf(Message message) {
+        try {
+            return message instanceof MimeMessage ? ((MimeMessage) message).getMessageID() : null;
+        } catch (MessagingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The Message-ID of the sent message, or null if unknown
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return The status of every recipient, in envelope order
+     */
+    public Map<Address, Status> getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * Returns the recipients with a given status.
+     *
+     * @param status The status to select
+     * @return Matching recipients, in envelope order
+     */
+    public List<Address> getRecipients(Status status) {
+        List<Address> matching = new ArrayList<>();
+        for (Map.Entry<Address, Status> entry : recipients.entrySet()) {
+            if (entry.getValue() == status) {
+                matching.add(entry.getKey());
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * @return The failure, or null if the message was sent to every recipient
+     */
+    public MessagingException getError() {
+        return error;
+    }
+
+    /**
+     * @return Whether the message was sent to every recipient
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return (isSuccess() ? "sent" : "failed: " + error.getMessage()) + " " + recipients;
+    }
+}
@@ -0,0 +1,263 @@
+package org.example;
+
+import jakarta.mail.Authenticator;
+import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Session;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A shared cache of mail sessions.
+ * <p>
+ * Creating a {@link Session} loads the provider and mailcap configuration, so
+ * sessions are created once per configuration and username and then reused
+ * by every reader, sender and pool. The password is not part of the key:
+ * each account, identified by protocol, host, port and username, has one
+ * password in the registry, read by its sessions' authenticator and by the
+ * pools when they connect. The password given when an account is first seen
+ * is registered; later calls with another password do not change it, only
+ * {@link #rotatePassword(String, String, String, String, String)} does, and
+ * that takes effect for new connections without replacing any session. Cached
+ * sessions must be treated as read-only; do not change their properties.
+ */
+public class SessionRegistry {
+
+    private static final SessionRegistry DEFAULT = new SessionRegistry();
+
+    private final Map<SessionKey, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<Account, Credentials> credentials = new ConcurrentHashMap<>();
+    private final Map<TrafficCounters, CountingSocketFactory> socketFactories = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the registry shared by {@link EmailReader}, {@link EmailSender},
+     * {@link EmailReply} and the connection pools.
+     *
+     * @return The default registry
+     */
+    public static SessionRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the session for an IMAP account.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password, registered if the account is new
+     * @return The shared session
+     */
+    public Session getImapSession(String host, String port, String username, String password) {
+        return getImapSession(host, port, username, password, false, null);
+    }
+
+    /**
+     * Returns the session for an IMAP account, optionally with compression and
+     * traffic counting.
+     *
+     * @param host IMAP server host
+     * @param port IMAP server port
+     * @param username Email account username
+     * @param password Email account password, registered if the account is new
+     * @param compress Whether to negotiate COMPRESS=DEFLATE when the server supports it
+     * @param counters Counters for wire bytes, or null to not count
+     * @return The shared session
+     */
+    public Session getImapSession(String host, String port, String username, String password,
+                                  boolean compress, TrafficCounters counters) {
+        // Set mail server properties
+        Properties properties = new Properties();
+        properties.put("mail.imap.host", host);
+        properties.put("mail.imap.port", port);
+        properties.put("mail.imap.ssl.enable", "true");
+        properties.put("mail.imap.auth", "true");
+        // Fetch bodies with BODY.PEEK so reading never sets \Seen as a side effect
+        properties.put("mail.imap.peek", "true");
+        if (compress) {
+            properties.put("mail.imap.compress.enable", "true");
+        }
+        if (counters != null) {
+            // TLS is layered on top of the counting socket
+            properties.put("mail.imap.socketFactory",
+                    socketFactories.computeIfAbsent(counters, CountingSocketFactory::new));
+            properties.put("mail.imap.socketFactory.fallback", "false");
+        }
+        return getSession("imap", properties, username, password);
+    }
+
+    /**
+     * Returns the session for an SMTP account using STARTTLS.
+     *
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param username Email account username
+     * @param password Email account password, registered if the account is new
+     * @return The shared session
+     */
+    public Session getSmtpSession(String host, String port, String username, String password) {
+        // Set mail server properties
+        Properties properties = new Properties();
+        properties.put("mail.smtp.host", host);
+        properties.put("mail.smtp.port", port);
+        properties.put("mail.smtp.auth", "true");
+        properties.put("mail.smtp.starttls.enable", "true");
+        // Don't wait for the reply to QUIT; a connection invalidated mid-DATA never sends one
+        properties.put("mail.smtp.quitwait", "false");
+        return getSession("smtp", properties, username, password);
+    }
+
+    /**
+     * Returns the session for a configuration, creating it on first use. The
+     * account is identified by the protocol, the {@code mail.<protocol>.host}
+     * and {@code mail.<protocol>.port} properties and the username. If the
+     * account is new, the password is registered for it; otherwise the
+     * registered password is kept.
+     *
+     * @param protocol The protocol, such as "imap" or "smtp"
+     * @param properties The session properties; copied, not retained
+     * @param username Email account username
+     * @param password Email account password, registered if the account is new
+     * @return The shared session
+     */
+    public Session getSession(String protocol, Properties properties, String username, String password) {
+        Account account = new Account(protocol, properties.getProperty("mail." + protocol + ".host"),
+                properties.getProperty("mail." + protocol + ".port"), username);
+        Credentials accountCredentials = credentials.computeIfAbsent(account,
+                key -> new Credentials(username, password));
+
+        Properties snapshot = new Properties();
+        snapshot.putAll(properties);
+        return sessions.computeIfAbsent(new SessionKey(snapshot, account),
+                key -> Session.getInstance(key.properties, accountCredentials));
+    }
+
+    /**
+     * Changes the password of an account. Sessions are kept; connections made
+     * from now on authenticate with the new password, existing ones stay open.
+     *
+     * @param protocol The protocol, such as "imap" or "smtp"
+     * @param host Server host
+     * @param port Server port
+     * @param username Email account username
+     * @param password The new password
+     */
+    public void rotatePassword(String protocol, String host, String port, String username, String password) {
+        credentials.computeIfAbsent(new Account(protocol, host, port, username),
+                key -> new Credentials(username, password)).password = password;
+    }
+
+    /**
+     * Returns the current password of an account.
+     *
+     * @param protocol The protocol, such as "imap" or "smtp"
+     * @param host Server host
+     * @param port Server port
+     * @param username Email account username
+     * @return The password, or null if the account is not registered
+     */
+    String getPassword(String protocol, String host, String port, String username) {
+        Credentials account = credentials.get(new Account(protocol, host, port, username));
+        return account == null ? null : account.password;
+    }
+
+    /**
+     * Drops every cached session and password.
+     */
+    public void clear() {
+        sessions.clear();
+        credentials.clear();
+        socketFactories.clear();
+    }
+
+    /**
+     * @return Number of cached sessions
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * The current password of one account, handed to every session of that account.
+     */
+    private static final class Credentials extends Authenticator {
+        private final String username;
+        private volatile String password;
+
+        private Credentials(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+            return new PasswordAuthentication(username, password);
+        }
+    }
+
+    /**
+     * Identifies an account and its password.
+     */
+    private static final class Account {
+        private final String protocol;
+        private final String host;
+        private final String port;
+        private final String username;
+
+        private Account(String protocol, String host, String port, String username) {
+            this.protocol = protocol;
+            this.host = host;
+            this.port = port;
+            this.username = username;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Account)) {
+                return false;
+            }
+            Account other = (Account) o;
+            return Objects.equals(protocol, other.protocol) && Objects.equals(host, other.host)
+                    && Objects.equals(port, other.port) && Objects.equals(username, other.username);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(protocol, host, port, username);
+        }
+    }
+
+    /**
+     * Identifies a cached session.
+     */
+    private static final class SessionKey {
+        private final Properties properties;
+        private final Account account;
+
+        private SessionKey(Properties properties, Account account) {
+            this.properties = properties;
+            this.account = account;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SessionKey)) {
+                return false;
+            }
+            SessionKey other = (SessionKey) o;
+            return properties.equals(other.properties) && account.equals(other.account);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(properties, account);
+        }
+    }
+}
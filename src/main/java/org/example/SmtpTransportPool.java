@@ -0,0 +1,399 @@
+package org.example;
+
+import com.sun.mail.smtp.SMTPTransport;
+import jakarta.mail.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of authenticated SMTP connections.
+ * <p>
+ * Connections are keyed by host, port and username; each key holds up to a
+ * fixed number of connections. A borrowed connection that was used before is
+ * reset with RSET, which also proves the server is still there; otherwise it
+ * is reconnected. Idle connections are probed with NOOP by a background
+ * sweeper, and closed once they stay unused longer than the idle timeout, so
+ * server-side timeouts are noticed before the next send.
+ */
+public class SmtpTransportPool {
+
+    /** Default time an unused connection is kept open (1 minute). */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /** Default number of connections per host, port and username. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_KEY = 4;
+
+    private static final SmtpTransportPool DEFAULT =
+            new SmtpTransportPool(DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_MAX_CONNECTIONS_PER_KEY);
+
+    private final Map<Key, Slot> slots = new ConcurrentHashMap<>();
+    private final long idleTimeoutMillis;
+    private final int maxConnectionsPerKey;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * Creates a pool.
+     *
+     * @param idleTimeoutMillis Idle time after which a connection is closed
+     * @param maxConnectionsPerKey Maximum connections per host, port and username
+     */
+    public SmtpTransportPool(long idleTimeoutMillis, int maxConnectionsPerKey) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxConnectionsPerKey = maxConnectionsPerKey;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-pool-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000L, idleTimeoutMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the shared pool used by the static {@link EmailSender} methods.
+     *
+     * @return The default pool
+     */
+    public static SmtpTransportPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Borrows a connected transport, waiting if all connections for the key are in use.
+     *
+     * @param host SMTP server host (e.g., "smtp.gmail.com")
+     * @param port SMTP server port (e.g., "587" for TLS)
+     * @param username Email account username
+     * @param password Email account password, used if the account is new to {@link SessionRegistry}
+     * @return A lease on the connected transport
+     * @throws MessagingException If the connection cannot be established
+     */
+    public Lease borrow(String host, String port, String username, String password) throws MessagingException {
+        Key key = new Key(host, port, username);
+        // Registers the password if the account is new; connect with the current one
+        SessionRegistry registry = SessionRegistry.getDefault();
+        Session session = registry.getSmtpSession(host, port, username, password);
+        String currentPassword = registry.getPassword("smtp", host, port, username);
+        Slot slot = slots.computeIfAbsent(key, k -> new Slot(k, maxConnectionsPerKey));
+        try {
+            slot.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection to " + key, e);
+        }
+
+        try {
+            Connection connection = slot.pollIdle();
+            if (connection == null || !connection.reset()) {
+                if (connection != null) {
+                    connection.closeQuietly();
+                }
+                connection = new Connection(session);
+                connection.connect(host, port, username, currentPassword);
+            }
+            return new Lease(slot, connection);
+        } catch (MessagingException | RuntimeException e) {
+            slot.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Probes idle connections with NOOP, closing those that are dead or have
+     * not been used within the idle timeout. Connections are probed outside the
+     * slot lock; borrowers that found no idle connection meanwhile may have
+     * opened new ones, so live connections that no longer fit under the per-key
+     * limit are closed rather than returned.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Slot slot : slots.values()) {
+            for (Connection connection : slot.drainIdle()) {
+                if (now - connection.lastUsed >= idleTimeoutMillis || !connection.transport.isConnected()
+                        || !slot.offerIdle(connection)) {
+                    connection.closeQuietly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes every idle connection. Connections currently on loan are closed
+     * when they are returned.
+     */
+    public void closeAll() {
+        for (Slot slot : slots.values()) {
+            for (Connection connection : slot.drainIdle()) {
+                connection.closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Identifies a group of pooled connections.
+     */
+    public static final class Key {
+        private final String host;
+        private final String port;
+        private final String username;
+
+        public Key(String host, String port, String username) {
+            this.host = host;
+            this.port = port;
+            this.username = username;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getPort() {
+            return port;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return host.equals(other.host) && port.equals(other.port) && username.equals(other.username);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, username);
+        }
+
+        @Override
+        public String toString() {
+            return username + "@" + host + ":" + port;
+        }
+    }
+
+    /**
+     * Exclusive use of a pooled connection. Closing the lease returns the
+     * connection to the pool.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Slot slot;
+        private Connection connection;
+        private boolean released;
+
+        private Lease(Slot slot, Connection connection) {
+            this.slot = slot;
+            this.connection = connection;
+        }
+
+        /**
+         * @return The session to create messages with
+         */
+        public Session getSession() {
+            return connection.session;
+        }
+
+        /**
+         * @return The connected transport
+         */
+        public SMTPTransport getTransport() {
+            return connection.transport;
+        }
+
+        /**
+         * @return The key of the pooled connection
+         */
+        public Key getKey() {
+            return slot.key;
+        }
+
+        /**
+         * Sends a message to all its recipients.
+         *
+         * @param message The message to send
+         * @throws MessagingException If the message cannot be sent
+         * @see #send(Message, Address[])
+         */
+        public void send(Message message) throws MessagingException {
+            send(message, message.getAllRecipients());
+        }
+
+        /**
+         * Sends a message to the given recipients. If the send fails for a reason
+         * other than rejected addresses, such as the server having dropped the
+         * connection, the transport is reconnected and the send retried once.
+         *
+         * @param message The message to send
+         * @param recipients The envelope recipients
+         * @throws MessagingException If the message cannot be sent
+         */
+        public void send(Message message, Address[] recipients) throws MessagingException {
+            message.saveChanges();
+            try {
+                connection.transport.sendMessage(message, recipients);
+            } catch (SendFailedException e) {
+                throw e;
+            } catch (MessagingException e) {
+                System.out.println("SMTP send to " + slot.key + " failed, reconnecting: " + e.getMessage());
+                reconnect();
+                connection.transport.sendMessage(message, recipients);
+            } finally {
+                connection.lastUsed = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Replaces the connection with a freshly authenticated one, using the
+         * account's current password in {@link SessionRegistry}.
+         *
+         * @throws MessagingException If the connection cannot be established
+         */
+        public void reconnect() throws MessagingException {
+            connection.closeQuietly();
+            // Keep the closed connection until the new one is up, so a failed
+            // reconnect is never returned to the pool
+            Connection fresh = new Connection(connection.session);
+            fresh.connect(slot.key.host, slot.key.port, slot.key.username,
+                    SessionRegistry.getDefault().getPassword("smtp", slot.key.host, slot.key.port, slot.key.username));
+            connection = fresh;
+        }
+
+        /**
+         * Closes the underlying connection instead of returning it to the pool.
+         * Use this after an error that may have left the connection unusable.
+         */
+        public void invalidate() {
+            connection.closeQuietly();
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                if (connection.isReusable()) {
+                    slot.returnIdle(connection);
+                }
+                slot.permits.release();
+            }
+        }
+    }
+
+    /**
+     * The connections of one key: idle connections and a limit on the total.
+     */
+    private static final class Slot {
+        private final Key key;
+        private final int maxConnections;
+        private final Semaphore permits;
+        private final Deque<Connection> idle = new ArrayDeque<>();
+
+        private Slot(Key key, int maxConnections) {
+            this.key = key;
+            this.maxConnections = maxConnections;
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        /**
+         * Takes the most recently used idle connection, which is the least likely to have timed out.
+         */
+        private synchronized Connection pollIdle() {
+            return idle.pollFirst();
+        }
+
+        private synchronized void returnIdle(Connection connection) {
+            idle.addFirst(connection);
+        }
+
+        /**
+         * Puts a probed connection back behind the ones returned meanwhile,
+         * unless the idle connections together with those on loan already
+         * reach the limit.
+         *
+         * @return Whether the connection was kept
+         */
+        private synchronized boolean offerIdle(Connection connection) {
+            int onLoan = maxConnections - permits.availablePermits();
+            if (idle.size() + onLoan >= maxConnections) {
+                return false;
+            }
+            idle.addLast(connection);
+            return true;
+        }
+
+        private synchronized Deque<Connection> drainIdle() {
+            Deque<Connection> drained = new ArrayDeque<>(idle);
+            idle.clear();
+            return drained;
+        }
+    }
+
+    /**
+     * A session and its connected transport.
+     */
+    private static final class Connection {
+        private final Session session;
+        private final SMTPTransport transport;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile boolean connected;
+        private volatile boolean closed;
+
+        private Connection(Session session) throws MessagingException {
+            this.session = session;
+            this.transport = (SMTPTransport) session.getTransport("smtp");
+        }
+
+        private void connect(String host, String port, String username, String password) throws MessagingException {
+            try {
+                transport.connect(host, Integer.parseInt(port), username, password);
+            } catch (MessagingException | RuntimeException e) {
+                closeQuietly();
+                throw e;
+            }
+            connected = true;
+        }
+
+        /**
+         * Returns whether the connection was established and has not been closed
+         * since. Unlike {@link SMTPTransport#isConnected()} this sends no NOOP.
+         */
+        private boolean isReusable() {
+            return connected && !closed;
+        }
+
+        /**
+         * Resets the transaction state with RSET before reuse.
+         *
+         * @return Whether the server accepted the RSET
+         */
+        private boolean reset() {
+            try {
+                transport.issueCommand("RSET", 250);
+                return true;
+            } catch (MessagingException | RuntimeException e) {
+                return false;
+            }
+        }
+
+        private void closeQuietly() {
+            closed = true;
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                System.out.println("Error closing SMTP connection: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte counters for mail server connections, as seen on the wire.
+ * <p>
+ * The counts are taken below TLS and below any COMPRESS=DEFLATE layer, so
+ * comparing a run with compression enabled against one without shows the
+ * saving directly.
+ */
+public class TrafficCounters {
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+
+    /**
+     * @return Bytes received from the server
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * @return Bytes sent to the server
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * @return Number of connections opened
+     */
+    public long getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Sets all counters back to zero.
+     */
+    public void reset() {
+        bytesIn.set(0);
+        bytesOut.set(0);
+        connections.set(0);
+    }
+
+    void addBytesIn(long count) {
+        bytesIn.addAndGet(count);
+    }
+
+    void addBytesOut(long count) {
+        bytesOut.addAndGet(count);
+    }
+
+    void addConnection() {
+        connections.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "connections=" + getConnections() + ", in=" + getBytesIn() + " bytes, out=" + getBytesOut() + " bytes";
+    }
+}
@@ -0,0 +1,266 @@
+package org.example;
+
+import jakarta.mail.Flags;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Persists per-folder IMAP sync checkpoints to a small local properties file.
+ * <p>
+ * Each checkpoint records the folder's UIDVALIDITY, the highest UID already
+ * processed and, for servers with CONDSTORE, the highest mod-sequence seen,
+ * keyed by account and folder (e.g., "user@imap.gmail.com:993/INBOX").
+ * The file is rewritten atomically on every update.
+ * <p>
+ * For servers without CONDSTORE/QRESYNC, a per-folder flag snapshot is kept in
+ * a sibling file so flag changes and expunges can be found by diffing.
+ */
+public class UidCheckpointStore {
+
+    private final Path file;
+    private final Properties checkpoints = new Properties();
+
+    /**
+     * Opens the checkpoint file, loading existing checkpoints if it exists.
+     *
+     * @param file Path of the checkpoint file
+     * @throws IOException If an existing file cannot be read
+     */
+    public UidCheckpointStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (InputStream input = Files.newInputStream(file)) {
+                checkpoints.load(input);
+            }
+        }
+    }
+
+    /**
+     * Returns the checkpoint for a folder.
+     *
+     * @param key Account and folder key
+     * @return The checkpoint, or null if the folder has never been synced
+     */
+    public synchronized Checkpoint get(String key) {
+        String value = checkpoints.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(":");
+        try {
+            long highestModSeq = fields.length > 2 ? Long.parseLong(fields[2]) : -1;
+            return new Checkpoint(Long.parseLong(fields[0]), Long.parseLong(fields[1]), highestModSeq);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Ignoring malformed checkpoint for " + key + ": " + value);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the checkpoint for a folder and writes the file.
+     *
+     * @param key Account and folder key
+     * @param checkpoint The new checkpoint
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void put(String key, Checkpoint checkpoint) throws IOException {
+        checkpoints.setProperty(key, checkpoint.getUidValidity() + ":" + checkpoint.getLastUid()
+                + ":" + checkpoint.getHighestModSeq());
+        save();
+    }
+
+    /**
+     * Advances a folder's checkpoint past the messages of a sync, once they
+     * have been processed. The mod-sequence recorded by a flag resync is kept
+     * unless UIDVALIDITY has changed.
+     *
+     * @param result The processed sync result
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void commit(UidSyncResult result) throws IOException {
+        Checkpoint current = get(result.getKey());
+        boolean sameValidity = current != null && current.getUidValidity() == result.getUidValidity();
+        long lastUid = sameValidity ? Math.max(current.getLastUid(), result.getLastUid()) : result.getLastUid();
+        long highestModSeq = sameValidity ? current.getHighestModSeq() : -1;
+        put(result.getKey(), new Checkpoint(result.getUidValidity(), lastUid, highestModSeq));
+    }
+
+    /**
+     * Removes the checkpoint for a folder so the next sync starts from scratch.
+     *
+     * @param key Account and folder key
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void remove(String key) throws IOException {
+        if (checkpoints.remove(key) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Loads the flag snapshot of a folder.
+     *
+     * @param key Account and folder key
+     * @return Canonical flag strings by UID; empty if there is no snapshot
+     * @throws IOException If the snapshot cannot be read
+     */
+    public synchronized Map<Long, String> loadFlagSnapshot(String key) throws IOException {
+        Map<Long, String> snapshot = new HashMap<>();
+        Path snapshotFile = snapshotFile(key);
+        if (!Files.exists(snapshotFile)) {
+            return snapshot;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    snapshot.put(Long.parseLong(line.substring(0, space)), line.substring(space + 1));
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Replaces the flag snapshot of a folder.
+     *
+     * @param key Account and folder key
+     * @param snapshot Canonical flag strings by UID
+     * @throws IOException If the snapshot cannot be written
+     */
+    public synchronized void saveFlagSnapshot(String key, Map<Long, String> snapshot) throws IOException {
+        writeAtomically(snapshotFile(key), output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            for (Map.Entry<Long, String> entry : snapshot.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.flush();
+        });
+    }
+
+    /**
+     * Returns a canonical string form of a flag set, suitable for comparison.
+     *
+     * @param flags The flags
+     * @return System flags followed by user flags, each sorted
+     */
+    public static String canonicalFlags(Flags flags) {
+        List<String> names = new ArrayList<>();
+        for (Flags.Flag flag : flags.getSystemFlags()) {
+            names.add(systemFlagName(flag));
+        }
+        Collections.sort(names);
+        String[] userFlags = flags.getUserFlags();
+        Arrays.sort(userFlags);
+        names.addAll(Arrays.asList(userFlags));
+        return String.join(" ", names);
+    }
+
+    private static String systemFlagName(Flags.Flag flag) {
+        if (flag == Flags.Flag.ANSWERED) {
+            return "\\Answered";
+        } else if (flag == Flags.Flag.DELETED) {
+            return "\\Deleted";
+        } else if (flag == Flags.Flag.DRAFT) {
+            return "\\Draft";
+        } else if (flag == Flags.Flag.FLAGGED) {
+            return "\\Flagged";
+        } else if (flag == Flags.Flag.RECENT) {
+            return "\\Recent";
+        } else if (flag == Flags.Flag.SEEN) {
+            return "\\Seen";
+        }
+        return "\\*";
+    }
+
+    private Path snapshotFile(String key) {
+        String safeKey = key.replaceAll("[^A-Za-z0-9._-]", "_");
+        return file.resolveSibling(file.getFileName() + "." + safeKey + ".flags");
+    }
+
+    /**
+     * Writes all checkpoints to a temporary file and moves it into place.
+     */
+    private void save() throws IOException {
+        writeAtomically(file, output ->
+                checkpoints.store(output, "IMAP sync checkpoints (uidvalidity:lastuid:highestmodseq)"));
+    }
+
+    /**
+     * Writes a file through a temporary sibling that is moved into place.
+     */
+    private static void writeAtomically(Path target, ContentWriter writer) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                writer.write(output);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private interface ContentWriter {
+        void write(OutputStream output) throws IOException;
+    }
+
+    /**
+     * The sync position of a folder.
+     */
+    public static final class Checkpoint {
+        private final long uidValidity;
+        private final long lastUid;
+        private final long highestModSeq;
+
+        public Checkpoint(long uidValidity, long lastUid) {
+            this(uidValidity, lastUid, -1);
+        }
+
+        public Checkpoint(long uidValidity, long lastUid, long highestModSeq) {
+            this.uidValidity = uidValidity;
+            this.lastUid = lastUid;
+            this.highestModSeq = highestModSeq;
+        }
+
+        /**
+         * @return The folder's UIDVALIDITY when the checkpoint was taken
+         */
+        public long getUidValidity() {
+            return uidValidity;
+        }
+
+        /**
+         * @return The highest UID already processed
+         */
+        public long getLastUid() {
+            return lastUid;
+        }
+
+        /**
+         * @return The highest mod-sequence seen, or -1 if unknown
+         */
+        public long getHighestModSeq() {
+            return highestModSeq;
+        }
+    }
+}
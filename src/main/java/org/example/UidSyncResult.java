@@ -0,0 +1,73 @@
+package org.example;
+
+import jakarta.mail.Message;
+import java.util.List;
+
+/**
+ * The outcome of an incremental UID sync of one folder.
+ * <p>
+ * The checkpoint is not advanced by the sync itself; pass the result to
+ * {@link UidCheckpointStore#commit(UidSyncResult)} once its messages have been
+ * processed, so that a failure in between fetches them again.
+ */
+public class UidSyncResult {
+
+    private final String key;
+    private final List<Message> messages;
+    private final long uidValidity;
+    private final long lastUid;
+    private final boolean reset;
+    private final boolean hasMore;
+
+    public UidSyncResult(String key, List<Message> messages, long uidValidity, long lastUid,
+                         boolean reset, boolean hasMore) {
+        this.key = key;
+        this.messages = messages;
+        this.uidValidity = uidValidity;
+        this.lastUid = lastUid;
+        this.reset = reset;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * @return The account and folder key of the checkpoint
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return Messages that arrived since the previous sync, oldest first
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return The folder's current UIDVALIDITY
+     */
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    /**
+     * @return The highest UID returned, to be stored as the checkpoint on commit
+     */
+    public long getLastUid() {
+        return lastUid;
+    }
+
+    /**
+     * @return True if UIDVALIDITY changed and the folder was synced from scratch
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * @return True if the batch was full and more new messages are waiting
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
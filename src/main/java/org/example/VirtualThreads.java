@@ -0,0 +1,57 @@
+package org.example;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors that run each task on its own virtual thread when the
+ * runtime supports them (Java 21+), and on daemon platform threads otherwise.
+ * The project is compiled for an older release, so the virtual-thread API is
+ * looked up reflectively.
+ */
+final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return Whether tasks will run on virtual threads
+     */
+    static boolean isAvailable() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts a new thread for every task.
+     *
+     * @param namePrefix Prefix of platform thread names when virtual threads are unavailable
+     * @return The executor
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads unavailable, using platform threads: " + e.getMessage());
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}